@@ -0,0 +1,106 @@
+package com.autovideo.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.autovideo.process.ExternalProcess;
+import com.autovideo.process.ProcessResult;
+
+/**
+ * Cost of the Ken Burns effect on one image, running only the filters (no encoding):
+ * - zoompan8000: the chain VideoRenderer used before KenBurns, upscaling every frame to 8000 px
+ * - kenBurns: KenBurns, which scales the image once and lets zoompan generate the frames
+ *
+ * Each invocation runs one ffmpeg, so the time is for `duration` seconds of video:
+ * divide it by duration for the cost per image-second. Without an image, a 1280x853
+ * test picture is generated. Needs ffmpeg on the PATH.
+ *
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="KenBurnsBenchmark -p image=photo.jpg"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KenBurnsBenchmark {
+	private static final RenderProfile PROFILE = RenderProfile.FINAL;
+
+	/**
+	 * Path of the image, empty for a generated test picture
+	 */
+	@Param("")
+	public String image;
+
+	/**
+	 * Seconds of video generated from the image
+	 */
+	@Param("10")
+	public double duration;
+
+	private File testImage = null;
+
+	@Setup
+	public void createImage() throws IOException, InterruptedException {
+		if (!image.isEmpty())
+			return;
+
+		testImage = File.createTempFile("kenburns", ".jpg");
+		image = testImage.getAbsolutePath();
+		run("ffmpeg", "-y", "-loglevel", "error", "-f", "lavfi", "-i", "testsrc2=s=1280x853",
+			"-frames:v", "1", "-update", "1", image);
+	}
+
+	@TearDown
+	public void deleteImage() {
+		if (testImage != null)
+			testImage.delete();
+	}
+
+	@Benchmark
+	public ProcessResult zoompan8000() throws IOException, InterruptedException {
+		String filter = PROFILE.getScaleFilter() + ",setsar=1,"
+			+ fades() + ","
+			+ "scale=8000:-1,zoompan=z='if(lte(pzoom,1.0),1.2,max(1.1,pzoom-0.0004))'"
+			+ ":x='iw/2-(iw/pzoom/2)':y='ih/2-(ih/pzoom/2)':d=1,scale=hd1080";
+		return run("ffmpeg", "-y", "-loglevel", "error",
+			"-loop", "1", "-framerate", "" + PROFILE.getFps(), "-t", "" + duration, "-i", image,
+			"-filter_complex", filter, "-f", "null", "-");
+	}
+
+	@Benchmark
+	public ProcessResult kenBurns() throws IOException, InterruptedException {
+		String filter = new KenBurns(1.2, 1.1, 0.01).getFilter(PROFILE, duration) + "," + fades();
+		return run("ffmpeg", "-y", "-loglevel", "error",
+			"-i", image,
+			"-filter_complex", filter, "-f", "null", "-");
+	}
+
+	private String fades() {
+		return "fade=t=in:st=0:d=1,fade=t=out:st=" + (duration - 1) + ":d=1";
+	}
+
+	/**
+	 * @throws IOException if the command failed, so that a broken filter doesn't pass for a fast one
+	 */
+	private static ProcessResult run(String... command) throws IOException, InterruptedException {
+		ProcessResult result = new ExternalProcess.Builder(command).build().run();
+		if (result.getExitCode() != 0)
+			throw new IOException(result + "\n" + result.getOutput());
+		return result;
+	}
+}
@@ -0,0 +1,85 @@
+package com.autovideo.wikidata.downloaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.autovideo.utils.Language;
+import com.autovideo.wikidata.datatypes.WikidataItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Cost of parsing one Wikidata entity from the bytes of a response:
+ * - eagerTree: the whole entity into a Gson tree, as before the streaming parser
+ *   (the tree still had to be walked, so this is a lower bound of the old cost)
+ * - streamingAll: the streaming parser with Projection.ALL
+ * - projected: the streaming parser with the projection of WikipediaVideoService
+ *
+ * The sample in src/benchmark/resources/wikidata is a synthetic entity in the
+ * wbgetentities format, sized like the entity of a large city: 300 labels and
+ * sitelinks, 250 descriptions and 154 properties with qualifiers and references.
+ *
+ * Run with: mvn -Pbenchmarks compile exec:exec -Djmh.args="EntityParsingBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityParsingBenchmark {
+	private static final Gson gson = new Gson();
+
+	private final WikidataItemDownloader all = new WikidataItemDownloader();
+
+	private final WikidataItemDownloader projected = new WikidataItemDownloader(1, new WikidataItemDownloader.Projection(
+		new HashSet<>(Arrays.asList("P41", "P625", "P571", "P112", "P2044")), EnumSet.of(Language.EN)));
+
+	private byte[] entity;
+
+	@Setup
+	public void load() throws IOException {
+		try (InputStream in = EntityParsingBenchmark.class.getResourceAsStream("/wikidata/sample-entity.json")) {
+			entity = IOUtils.toByteArray(in);
+		}
+	}
+
+	private JsonReader reader() {
+		return new JsonReader(new InputStreamReader(new ByteArrayInputStream(entity), StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public JsonObject eagerTree() {
+		return gson.fromJson(reader(), JsonObject.class);
+	}
+
+	@Benchmark
+	public WikidataItem streamingAll() throws IOException {
+		return all.parseEntity(reader());
+	}
+
+	@Benchmark
+	public WikidataItem projected() throws IOException {
+		return projected.parseEntity(reader());
+	}
+}
@@ -12,6 +12,22 @@ public class AutovideoConf {
 	
 	private String pixabayApiKey;
 	
+	private String assetCacheDir;
+	
+	private long assetCacheMaxMb;
+	
+	private String ttsCacheDir;
+	
+	private String segmentCacheDir;
+	
+	private long segmentCacheMaxMb;
+	
+	private int ttsConcurrency;
+	
+	private long encodeTimeoutMinutes;
+	
+	private String checkpointDir;
+	
 	public synchronized static AutovideoConf getInstance() {
 		if (instance == null)
 			instance = new AutovideoConf();
@@ -28,6 +44,16 @@ public class AutovideoConf {
             this.awsSecretKey = prop.getProperty("aws_secret_key");
             this.pixabayApiKey = prop.getProperty("pixabay_api_key");
             
+            // Optional settings
+            this.assetCacheDir = prop.getProperty("asset_cache_dir", "cache/assets");
+            this.assetCacheMaxMb = Long.parseLong(prop.getProperty("asset_cache_max_mb", "2048").trim());
+            this.ttsCacheDir = prop.getProperty("tts_cache_dir", "cache/tts");
+            this.segmentCacheDir = prop.getProperty("segment_cache_dir", "cache/segments");
+            this.segmentCacheMaxMb = Long.parseLong(prop.getProperty("segment_cache_max_mb", "4096").trim());
+            this.ttsConcurrency = Math.max(1, Integer.parseInt(prop.getProperty("tts_concurrency", "4").trim()));
+            this.encodeTimeoutMinutes = Long.parseLong(prop.getProperty("encode_timeout_minutes", "120").trim());
+            this.checkpointDir = prop.getProperty("checkpoint_dir", "checkpoints");
+            
         } catch (IOException ex) {
             throw new RuntimeException("Unable to read properties file: autovideo.conf");
         }
@@ -45,5 +71,55 @@ public class AutovideoConf {
 		return pixabayApiKey;
 	}
 	
+	/**
+	 * Directory of the downloaded images/clips cache
+	 */
+	public String getAssetCacheDir() {
+		return assetCacheDir;
+	}
+	
+	public long getAssetCacheMaxBytes() {
+		return assetCacheMaxMb * 1024 * 1024;
+	}
+	
+	/**
+	 * Directory of the synthesized speech cache
+	 */
+	public String getTtsCacheDir() {
+		return ttsCacheDir;
+	}
+	
+	/**
+	 * Directory of the encoded section segments cache
+	 */
+	public String getSegmentCacheDir() {
+		return segmentCacheDir;
+	}
+	
+	public long getSegmentCacheMaxBytes() {
+		return segmentCacheMaxMb * 1024 * 1024;
+	}
+	
+	/**
+	 * Maximum number of Polly requests running at the same time
+	 */
+	public int getTtsConcurrency() {
+		return ttsConcurrency;
+	}
+	
+	/**
+	 * After this long an ffmpeg process is considered stuck and killed
+	 */
+	public long getEncodeTimeoutMinutes() {
+		return encodeTimeoutMinutes;
+	}
+	
+	/**
+	 * Directory where the completed stages of unfinished jobs are kept
+	 */
+	public String getCheckpointDir() {
+		return checkpointDir;
+	}
+	
 	
 }
@@ -1,11 +1,24 @@
 package com.autovideo;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
@@ -19,10 +32,20 @@ import com.amazonaws.services.polly.model.SynthesizeSpeechRequest;
 import com.amazonaws.services.polly.model.SynthesizeSpeechResult;
 import com.amazonaws.services.polly.model.TextType;
 import com.amazonaws.services.polly.model.VoiceId;
+import com.autovideo.cache.TtsCache;
+import com.autovideo.utils.CancellationToken;
 import com.autovideo.utils.Language;
+import com.autovideo.utils.SentenceChunker;
 
 public class Polly {
 
+	/**
+	 * Polly accepts at most 3000 billed characters per request: keep some room for SSML escaping
+	 */
+	private static final int MAX_CHUNK_CHARS = 2500;
+	
+	private static ExecutorService synthesisExecutor = null;
+
 	private AmazonPolly polly;
 	
 	private VoiceId voiceId;
@@ -35,6 +58,8 @@ public class Polly {
 	
 	private Language language;
 	
+	private TtsCache ttsCache = TtsCache.getInstance();
+	
 	public Polly(Engine engine, Language language) {
 		this.engine = engine;
 		this.language = language;
@@ -85,22 +110,30 @@ public class Polly {
                 .withVoiceId(voiceId)
                 .withText(text);
         
-        try (FileOutputStream outputStream = new FileOutputStream(new File(outputFileName))) {
-            SynthesizeSpeechResult synthesizeSpeechResult = polly.synthesizeSpeech(synthesizeSpeechRequest);
-            byte[] buffer = new byte[2 * 1024];
-            int readBytes;
- 
-            try (InputStream in = synthesizeSpeechResult.getAudioStream()){
-                while ((readBytes = in.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, readBytes);
-                }
-            }
+        try {
+            String key = TtsCache.key(text, voiceId, null, language, false, "speechmarks-word");
+            Path marks = ttsCache.get(key, "json",
+                () -> polly.synthesizeSpeech(synthesizeSpeechRequest).getAudioStream());
+            Files.copy(marks, Paths.get(outputFileName), StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
             System.err.println("Exception caught: " + e);
         }
     }
 	
+	/**
+	 * Synthesizes the text, or reads it from the TTS cache if the same text was
+	 * already synthesized with the same voice, engine and format.
+	 * @param text
+	 * @param format
+	 * @return
+	 * @throws IOException
+	 */
 	public InputStream synthesize(String text, OutputFormat format) throws IOException {
+		String key = TtsCache.key(text, voiceId, engine, language, useSsml, format.toString());
+		return Files.newInputStream(ttsCache.get(key, format.toString(), () -> synthesizeUncached(text, format)));
+	}
+	
+	private InputStream synthesizeUncached(String text, OutputFormat format) {
 		SynthesizeSpeechRequest synthReq = 
 		new SynthesizeSpeechRequest().withText(text).withVoiceId(voiceId)
 				.withEngine(engine)
@@ -114,16 +147,95 @@ public class Polly {
 		return synthRes.getAudioStream();
 	}
 
+	/**
+	 * Synthesizes the text to MP3. Long texts are split at sentence boundaries
+	 * in chunks that fit in a single Polly request; the chunks are synthesized in parallel
+	 * (bounded by tts_concurrency, shared by the whole JVM) and joined in order.
+	 * Nothing is written until every chunk is synthesized, so a failure never leaves
+	 * part of the narration in out.
+	 * @param text
+	 * @param out where the MP3 data is written, in order (not closed)
+	 * @throws IOException if a chunk could not be synthesized, nothing was written
+	 */
+	public void writeToMp3(String text, OutputStream out) throws IOException {
+		List<String> chunks = new SentenceChunker(MAX_CHUNK_CHARS, language).split(text);
+		System.out.println("Rendering audio: engine=" + engine.name() + ", ssml=" + useSsml + ", chunks=" + chunks.size());
+		
+		// Chunks still queued when the job is cancelled are never sent to Polly
+		CancellationToken token = CancellationToken.current();
+		List<Future<byte[]>> parts = new ArrayList<>();
+		for (String chunk : chunks) {
+			String request = useSsml ? "<speak><amazon:domain name=\"conversational\">" + escapeSsml(chunk) + "</amazon:domain></speak>" : chunk;
+			parts.add(getSynthesisExecutor().submit(token.wrap(() -> {
+				try (InputStream speechStream = synthesize(request, OutputFormat.Mp3)) {
+					return IOUtils.toByteArray(speechStream);
+				}
+			})));
+		}
+		
+		List<byte[]> mp3s = new ArrayList<>();
+		try (CancellationToken.Scope scope = token.onCancel(() -> parts.forEach(p -> p.cancel(true)))) {
+			for (Future<byte[]> part : parts) {
+				mp3s.add(await(part, parts));
+			}
+		}
+		
+		// Polly MP3s are bare MPEG frames (no tags), so they can be joined as they are
+		for (byte[] mp3 : mp3s) {
+			out.write(mp3);
+		}
+	}
+	
+	/**
+	 * Same as writeToMp3(String, OutputStream), to a file
+	 * @param text
+	 * @param targetFileName
+	 * @throws IOException
+	 */
 	public void writeToMp3(String text, String targetFileName) throws IOException {
-		System.out.println("Rendering audio: engine=" + engine.name() + ", ssml=" + useSsml);
-		if (useSsml) text = "<speak><amazon:domain name=\"conversational\">" + escapeSsml(text) + "</amazon:domain></speak>";
-		InputStream speechStream = synthesize(text, OutputFormat.Mp3);
-		File targetFile = new File(targetFileName);
-		 
-	    FileUtils.copyInputStreamToFile(speechStream, targetFile);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFileName))) {
+			writeToMp3(text, out);
+		}
+	}
+	
+	private static byte[] await(Future<byte[]> part, List<Future<byte[]>> parts) throws IOException {
+		try {
+			return part.get();
+		} catch (InterruptedException e) {
+			parts.forEach(p -> p.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while synthesizing speech");
+		} catch (ExecutionException e) {
+			parts.forEach(p -> p.cancel(true));
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private synchronized static ExecutorService getSynthesisExecutor() {
+		if (synthesisExecutor == null) {
+			AtomicInteger threadCount = new AtomicInteger();
+			synthesisExecutor = Executors.newFixedThreadPool(AutovideoConf.getInstance().getTtsConcurrency(), r -> {
+				Thread thread = new Thread(r, "polly-" + threadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return synthesisExecutor;
 	}
 	
 	public Language getLanguage() {
 		return language;
 	}
+	
+	public Engine getEngine() {
+		return engine;
+	}
+	
+	public VoiceId getVoiceId() {
+		return voiceId;
+	}
 } 
\ No newline at end of file
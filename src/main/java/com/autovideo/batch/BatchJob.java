@@ -0,0 +1,88 @@
+package com.autovideo.batch;
+
+/**
+ * One article to render as part of a batch.
+ * Instances are written to the queue journal as JSON, so keep the fields simple.
+ */
+public class BatchJob {
+    private String articleTitle;
+    private JobStatus status = JobStatus.PENDING;
+    private int attempts;
+    private String lastError;
+    // Seconds of video encoded per second (x realtime), 0 until the job is done
+    private double encodeSpeed;
+    private long createdAt;
+    private long updatedAt;
+    
+    public BatchJob(String articleTitle) {
+        this.articleTitle = articleTitle;
+        this.createdAt = System.currentTimeMillis();
+        this.updatedAt = createdAt;
+    }
+    
+    /**
+     * Copy used to hand out snapshots, so callers never see a job change under them.
+     */
+    BatchJob copy() {
+        BatchJob copy = new BatchJob(articleTitle);
+        copy.status = status;
+        copy.attempts = attempts;
+        copy.lastError = lastError;
+        copy.encodeSpeed = encodeSpeed;
+        copy.createdAt = createdAt;
+        copy.updatedAt = updatedAt;
+        return copy;
+    }
+    
+    public String getArticleTitle() {
+        return articleTitle;
+    }
+    
+    public JobStatus getStatus() {
+        return status;
+    }
+    
+    void setStatus(JobStatus status) {
+        this.status = status;
+        this.updatedAt = System.currentTimeMillis();
+    }
+    
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    void incrementAttempts() {
+        this.attempts++;
+    }
+    
+    public String getLastError() {
+        return lastError;
+    }
+    
+    void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+    
+    public double getEncodeSpeed() {
+        return encodeSpeed;
+    }
+    
+    void setEncodeSpeed(double encodeSpeed) {
+        this.encodeSpeed = encodeSpeed;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    @Override
+    public String toString() {
+        return "BatchJob [articleTitle=" + articleTitle + ", status=" + status + ", attempts=" + attempts
+                + (lastError != null ? ", lastError=" + lastError : "")
+                + (encodeSpeed > 0 ? ", encodeSpeed=" + encodeSpeed : "") + "]";
+    }
+}
@@ -0,0 +1,223 @@
+package com.autovideo.batch;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Durable FIFO queue of batch jobs, stored as an append-only journal in a directory.
+ *
+ * Every state change of a job is appended to queue.jsonl as one JSON line and synced
+ * to disk, so a crash loses at most the line being written. When the queue is opened
+ * the journal is replayed (last line per article wins), jobs that were RUNNING when the
+ * process died go back to PENDING, and the journal is compacted to one line per job.
+ *
+ * All methods are synchronized: one queue instance is shared by all the batch workers.
+ */
+public class BatchJobQueue implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(BatchJobQueue.class.getName());
+
+    private static final Gson gson = new Gson();
+
+    private static final String JOURNAL_FILE = "queue.jsonl";
+
+    private final Path journalFile;
+
+    // Keyed by article title, in insertion order
+    private final Map<String, BatchJob> jobs = new LinkedHashMap<>();
+
+    private final Deque<String> pending = new ArrayDeque<>();
+
+    private FileOutputStream journalStream;
+    private Writer journal;
+
+    private BatchJobQueue(Path directory) {
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+    }
+
+    /**
+     * Opens the queue stored in the given directory, creating it if needed.
+     */
+    public static BatchJobQueue open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        BatchJobQueue queue = new BatchJobQueue(directory);
+        queue.replay();
+        queue.compact();
+        queue.openJournal();
+        return queue;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalFile)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                try {
+                    BatchJob job = gson.fromJson(line, BatchJob.class);
+                    if (job != null && job.getArticleTitle() != null)
+                        jobs.put(job.getArticleTitle(), job);
+                } catch (JsonParseException e) {
+                    // Most likely a line truncated by a crash, the previous state still holds
+                    logger.warning("Skipping malformed queue journal line: " + line);
+                }
+            }
+        }
+
+        for (BatchJob job : jobs.values()) {
+            if (job.getStatus() == JobStatus.RUNNING) {
+                job.setStatus(JobStatus.PENDING);
+            }
+            if (job.getStatus() == JobStatus.PENDING) {
+                pending.add(job.getArticleTitle());
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        Path tmpFile = journalFile.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile.toFile());
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            for (BatchJob job : jobs.values()) {
+                writer.write(gson.toJson(job));
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmpFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openJournal() throws IOException {
+        journalStream = new FileOutputStream(journalFile.toFile(), true);
+        journal = new OutputStreamWriter(journalStream, StandardCharsets.UTF_8);
+    }
+
+    private void append(BatchJob job) throws IOException {
+        journal.write(gson.toJson(job));
+        journal.write('\n');
+    }
+
+    private void sync() throws IOException {
+        journal.flush();
+        journalStream.getFD().sync();
+    }
+
+    /**
+     * Adds the given article titles to the queue. Blank lines, lines starting
+     * with # and titles already in the queue (in any state) are skipped.
+     * @return the number of jobs actually added
+     */
+    public synchronized int enqueueAll(Collection<String> titles) throws IOException {
+        int added = 0;
+        for (String title : titles) {
+            if (title == null) continue;
+            title = title.trim();
+            if (title.isEmpty() || title.startsWith("#") || jobs.containsKey(title)) continue;
+
+            BatchJob job = new BatchJob(title);
+            jobs.put(title, job);
+            pending.add(title);
+            append(job);
+            added++;
+        }
+        sync();
+        return added;
+    }
+
+    /**
+     * Takes the next pending job and marks it as RUNNING.
+     * @return a snapshot of the job, or empty if nothing is pending
+     */
+    public synchronized Optional<BatchJob> next() throws IOException {
+        String title = pending.poll();
+        if (title == null) return Optional.empty();
+
+        BatchJob job = jobs.get(title);
+        job.setStatus(JobStatus.RUNNING);
+        job.incrementAttempts();
+        job.setLastError(null);
+        append(job);
+        sync();
+        return Optional.of(job.copy());
+    }
+
+    /**
+     * @param encodeSpeed measured encode speed of the job (x realtime), 0 if unknown
+     */
+    public synchronized void markDone(String articleTitle, double encodeSpeed) throws IOException {
+        BatchJob job = jobs.get(articleTitle);
+        job.setStatus(JobStatus.DONE);
+        job.setEncodeSpeed(encodeSpeed);
+        append(job);
+        sync();
+    }
+
+    public synchronized void markFailed(String articleTitle, String error) throws IOException {
+        BatchJob job = jobs.get(articleTitle);
+        job.setStatus(JobStatus.FAILED);
+        job.setLastError(error);
+        append(job);
+        sync();
+    }
+
+    /**
+     * Puts every FAILED job back in the queue.
+     * @return the number of jobs requeued
+     */
+    public synchronized int retryFailed() throws IOException {
+        int requeued = 0;
+        for (BatchJob job : jobs.values()) {
+            if (job.getStatus() == JobStatus.FAILED) {
+                job.setStatus(JobStatus.PENDING);
+                pending.add(job.getArticleTitle());
+                append(job);
+                requeued++;
+            }
+        }
+        sync();
+        return requeued;
+    }
+
+    public synchronized List<BatchJob> snapshot() {
+        List<BatchJob> result = new ArrayList<>(jobs.size());
+        jobs.values().forEach(job -> result.add(job.copy()));
+        return result;
+    }
+
+    public synchronized Map<JobStatus, Integer> countByStatus() {
+        Map<JobStatus, Integer> counts = new EnumMap<>(JobStatus.class);
+        for (JobStatus status : JobStatus.values()) counts.put(status, 0);
+        jobs.values().forEach(job -> counts.merge(job.getStatus(), 1, Integer::sum));
+        return counts;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            sync();
+            journal.close();
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.autovideo.batch;
+
+/**
+ * Receives per-job updates from the BatchVideoEngine.
+ * Called from the worker threads, so implementations must be thread safe.
+ */
+public interface BatchListener {
+    /**
+     * Called when a job starts, finishes or fails
+     * @param job snapshot of the job after the change
+     */
+    void onJobStatusChanged(BatchJob job);
+    
+    /**
+     * Called for stage changes and info messages coming from the video service
+     */
+    void onJobMessage(BatchJob job, String message);
+}
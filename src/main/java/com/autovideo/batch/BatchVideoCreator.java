@@ -0,0 +1,192 @@
+package com.autovideo.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.polly.model.Engine;
+import com.autovideo.img.ImageCategory;
+import com.autovideo.service.WikiVideoRequest;
+import com.autovideo.service.WikipediaVideoService;
+import com.autovideo.utils.BatchedLinesStream;
+import com.autovideo.utils.Language;
+import com.autovideo.video.RenderMode;
+import com.autovideo.video.RenderProfile;
+
+/**
+ * CLI entry point for rendering many articles in one go.
+ * Titles are read from a file (or stdin), stored in a durable queue and
+ * generated by a pool of workers. Running it again on the same queue
+ * directory resumes whatever was not finished.
+ */
+public class BatchVideoCreator {
+
+    /**
+     * How many titles are read from the input before being written to the queue
+     */
+    private static final int ENQUEUE_BATCH_SIZE = 500;
+
+    private static void usage() {
+        System.out.println("Usage:\n");
+        System.out.println("java -cp autovideo.jar com.autovideo.batch.BatchVideoCreator [titles_file|-] [options]");
+        System.out.println("\n* titles_file has one Wikipedia page name (or URL) per line, use - to read from stdin.");
+        System.out.println("  Leave it out to resume the jobs already in the queue.");
+        System.out.println("\nOptions:");
+        System.out.println("  --queue <dir>                queue directory (default: batch/)");
+        System.out.println("  --output <dir>               where videos are saved (default: output/final/)");
+        System.out.println("  --workers <n>                articles encoded at the same time (default: 2)");
+        System.out.println("  --fetch-workers <n>          articles downloaded and synthesized at the same time (default: same as --workers)");
+        System.out.println("  --section-concurrency <n>    sections rendered at the same time per article");
+        System.out.println("  --engine <standard|neural>   speech synthesis engine (default: standard)");
+        System.out.println("  --draft                      fast low resolution preview instead of the final render");
+        System.out.println("  --single-pass                encode each video with one ffmpeg process instead of one per section");
+        System.out.println("  --retry-failed               put failed jobs back in the queue");
+        System.out.println("  --status                     only print the status of the queue");
+    }
+
+    /**
+     * Reads the titles in batches, so huge lists never have to fit in memory at once.
+     */
+    private static int enqueueTitles(BatchJobQueue queue, BufferedReader reader) throws IOException {
+        BatchedLinesStream lines = new BatchedLinesStream(ENQUEUE_BATCH_SIZE, reader.lines().iterator());
+
+        int added = 0;
+        Spliterator<String> batch;
+        while ((batch = lines.trySplit()) != null) {
+            List<String> titles = new ArrayList<>(ENQUEUE_BATCH_SIZE);
+            batch.forEachRemaining(line -> titles.add(normalizeTitle(line)));
+            added += queue.enqueueAll(titles);
+        }
+        return added;
+    }
+
+    /**
+     * Accepts both page names and full Wikipedia URLs, like the GUI does
+     */
+    private static String normalizeTitle(String line) {
+        String title = line.trim();
+        if (title.contains("wikipedia.org/wiki/")) {
+            title = title.substring(title.lastIndexOf("/") + 1);
+        }
+        return title;
+    }
+
+    private static void printStatus(BatchJobQueue queue) {
+        Map<JobStatus, Integer> counts = queue.countByStatus();
+        System.out.println("Queue status: " + counts);
+        queue.snapshot().stream()
+            .filter(job -> job.getStatus() == JobStatus.FAILED)
+            .forEach(job -> System.out.println("  FAILED " + job.getArticleTitle() + ": " + job.getLastError()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Turn off annoying logging from dependencies
+        Logger.getLogger("org.jaudiotagger").setLevel(Level.OFF);
+
+        String input = null;
+        Path queueDir = Paths.get("batch");
+        Path outputDir = Paths.get("output/final/");
+        int workers = 2;
+        Integer fetchWorkers = null;
+        Integer sectionConcurrency = null;
+        Engine engine = Engine.Standard;
+        RenderMode renderMode = RenderMode.PER_SECTION;
+        RenderProfile renderProfile = RenderProfile.FINAL;
+        boolean retryFailed = false;
+        boolean statusOnly = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--queue": queueDir = Paths.get(args[++i]); break;
+                case "--output": outputDir = Paths.get(args[++i]); break;
+                case "--workers": workers = Integer.parseInt(args[++i]); break;
+                case "--fetch-workers": fetchWorkers = Integer.parseInt(args[++i]); break;
+                case "--section-concurrency": sectionConcurrency = Integer.parseInt(args[++i]); break;
+                case "--engine": engine = args[++i].equalsIgnoreCase("neural") ? Engine.Neural : Engine.Standard; break;
+                case "--draft": renderProfile = RenderProfile.DRAFT; break;
+                case "--single-pass": renderMode = RenderMode.SINGLE_PASS; break;
+                case "--retry-failed": retryFailed = true; break;
+                case "--status": statusOnly = true; break;
+                case "--help": usage(); return;
+                default:
+                    if (input != null) {
+                        usage();
+                        System.exit(1);
+                    }
+                    input = args[i];
+            }
+        }
+
+        // Sections of the same article are already rendered in parallel,
+        // so by default split the cores among the workers
+        int perJobConcurrency = sectionConcurrency != null ? sectionConcurrency
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+
+        try (BatchJobQueue queue = BatchJobQueue.open(queueDir)) {
+            if (statusOnly) {
+                printStatus(queue);
+                return;
+            }
+
+            if (input != null) {
+                try (BufferedReader reader = input.equals("-")
+                        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                        : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8)) {
+                    System.out.println("Queued " + enqueueTitles(queue, reader) + " new article(s)");
+                }
+            }
+
+            if (retryFailed) {
+                System.out.println("Requeued " + queue.retryFailed() + " failed article(s)");
+            }
+
+            final Path finalOutputDir = outputDir;
+            final Engine finalEngine = engine;
+            final RenderMode finalRenderMode = renderMode;
+            final RenderProfile finalRenderProfile = renderProfile;
+
+            BatchListener listener = new BatchListener() {
+                @Override
+                public void onJobStatusChanged(BatchJob job) {
+                    System.out.println("[" + job.getStatus() + "] " + job.getArticleTitle()
+                        + (job.getLastError() != null ? " - " + job.getLastError() : "")
+                        + (job.getEncodeSpeed() > 0 ? String.format(" - encoded at %.2fx realtime", job.getEncodeSpeed()) : ""));
+                }
+
+                @Override
+                public void onJobMessage(BatchJob job, String message) {
+                    System.out.println("[" + job.getArticleTitle() + "] " + message);
+                }
+            };
+
+            new BatchVideoEngine(
+                queue,
+                new WikipediaVideoService(),
+                title -> new WikiVideoRequest.Builder(title)
+                    .voiceEngine(finalEngine)
+                    .language(Language.EN)
+                    .imageCategory(ImageCategory.BUILDINGS)
+                    .outputDirectory(finalOutputDir)
+                    .sectionConcurrency(perJobConcurrency)
+                    .renderMode(finalRenderMode)
+                    .renderProfile(finalRenderProfile)
+                    .build(),
+                fetchWorkers != null ? fetchWorkers : workers,
+                workers,
+                listener
+            ).run();
+
+            printStatus(queue);
+        }
+    }
+}
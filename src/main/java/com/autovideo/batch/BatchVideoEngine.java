@@ -0,0 +1,137 @@
+package com.autovideo.batch;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.autovideo.service.ProgressListener;
+import com.autovideo.service.VideoPipeline;
+import com.autovideo.service.WikiVideoRequest;
+import com.autovideo.service.WikipediaVideoService;
+
+/**
+ * Runs the jobs of a BatchJobQueue through a VideoPipeline: fetch workers download
+ * and synthesize the next articles while render workers encode the current ones.
+ * Jobs are taken from the queue only when the pipeline can accept them, and their
+ * outcome is recorded in the queue as soon as they finish.
+ */
+public class BatchVideoEngine {
+    private static final Logger logger = Logger.getLogger(BatchVideoEngine.class.getName());
+    
+    private final BatchJobQueue queue;
+    private final WikipediaVideoService service;
+    private final Function<String, WikiVideoRequest> requestFactory;
+    private final int fetchWorkers;
+    private final int renderWorkers;
+    private final BatchListener listener;
+    
+    /**
+     * @param queue where the jobs are taken from
+     * @param service shared by all the workers
+     * @param requestFactory builds the request for an article title
+     * @param fetchWorkers how many articles are downloaded and synthesized at the same time
+     * @param renderWorkers how many articles are encoded at the same time
+     * @param listener per-job updates (can be null)
+     */
+    public BatchVideoEngine(BatchJobQueue queue, WikipediaVideoService service, 
+            Function<String, WikiVideoRequest> requestFactory, int fetchWorkers, int renderWorkers, 
+            BatchListener listener) {
+        if (fetchWorkers < 1 || renderWorkers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1");
+        }
+        this.queue = queue;
+        this.service = service;
+        this.requestFactory = requestFactory;
+        this.fetchWorkers = fetchWorkers;
+        this.renderWorkers = renderWorkers;
+        this.listener = listener;
+    }
+    
+    /**
+     * Processes pending jobs until the queue is drained.
+     * Blocks until every job went through the pipeline.
+     */
+    public void run() throws IOException, InterruptedException {
+        // One prepared article waiting per render worker is enough to never leave ffmpeg idle
+        try (VideoPipeline pipeline = new VideoPipeline(service, fetchWorkers, renderWorkers, renderWorkers)) {
+            Optional<BatchJob> next;
+            while (!Thread.currentThread().isInterrupted() && (next = queue.next()).isPresent()) {
+                BatchJob job = next.get();
+                notifyStatus(job);
+                
+                WikiVideoRequest request;
+                try {
+                    request = requestFactory.apply(job.getArticleTitle());
+                } catch (RuntimeException e) {
+                    finish(job, e);
+                    continue;
+                }
+                
+                pipeline.submit(request, progressListenerFor(job))
+                    .whenComplete((result, error) -> finish(job, error));
+            }
+        }
+    }
+    
+    private void finish(BatchJob job, Throwable error) {
+        try {
+            if (error == null) {
+                queue.markDone(job.getArticleTitle(), job.getEncodeSpeed());
+                job.setStatus(JobStatus.DONE);
+            } else {
+                String message = error.getClass().getSimpleName() + ": " + error.getMessage();
+                queue.markFailed(job.getArticleTitle(), message);
+                job.setStatus(JobStatus.FAILED);
+                job.setLastError(message);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to record the outcome of " + job.getArticleTitle(), e);
+        }
+        
+        notifyStatus(job);
+    }
+    
+    private ProgressListener progressListenerFor(BatchJob job) {
+        return new ProgressListener() {
+            @Override
+            public void onStageChanged(String stageName) {
+                notifyMessage(job, stageName);
+            }
+            
+            @Override
+            public void onProgress(double fraction) {
+                // per-job progress is not interesting at batch level
+            }
+            
+            @Override
+            public void onMessage(String message) {
+                notifyMessage(job, message);
+            }
+            
+            @Override
+            public void onError(Throwable error) {
+                // reported through the job status
+            }
+            
+            @Override
+            public void onEncodeSpeed(double speed) {
+                // recorded in the queue when the job is marked done
+                job.setEncodeSpeed(speed);
+            }
+        };
+    }
+    
+    private void notifyStatus(BatchJob job) {
+        if (listener != null) {
+            listener.onJobStatusChanged(job);
+        }
+    }
+    
+    private void notifyMessage(BatchJob job, String message) {
+        if (listener != null) {
+            listener.onJobMessage(job, message);
+        }
+    }
+}
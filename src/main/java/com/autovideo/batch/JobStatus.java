@@ -0,0 +1,8 @@
+package com.autovideo.batch;
+
+/**
+ * Lifecycle of a job in the batch queue.
+ */
+public enum JobStatus {
+    PENDING, RUNNING, DONE, FAILED
+}
@@ -0,0 +1,245 @@
+package com.autovideo.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.http.client.fluent.Request;
+
+import com.autovideo.AutovideoConf;
+import com.autovideo.utils.CancellationToken;
+import com.autovideo.utils.Hashing;
+
+/**
+ * On-disk cache for downloaded assets (images, clips, flags), shared by all the jobs of the JVM.
+ *
+ * Content is stored once under blobs/ named by its SHA-256, and urls/ maps the hash of each
+ * URL to the content it returned, so two URLs serving the same file share one blob.
+ * The total size of the blobs is capped: the least recently used ones are evicted first.
+ * Concurrent requests for the same URL are coalesced into a single download.
+ *
+ * Cached files must never be modified in place: use copyTo() to get a private copy.
+ */
+public class AssetCache {
+	private static final Logger logger = Logger.getLogger(AssetCache.class.getName());
+
+	private static AssetCache instance = null;
+
+	private final Path blobsDir;
+
+	private final Path urlsDir;
+
+	private final long maxSizeBytes;
+
+	/**
+	 * Content hash -> size, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalSize = 0;
+
+	private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	public synchronized static AssetCache getInstance() {
+		if (instance == null) {
+			AutovideoConf conf = AutovideoConf.getInstance();
+			instance = new AssetCache(Paths.get(conf.getAssetCacheDir()), conf.getAssetCacheMaxBytes());
+		}
+		return instance;
+	}
+
+	public AssetCache(Path root, long maxSizeBytes) {
+		this.blobsDir = root.resolve("blobs");
+		this.urlsDir = root.resolve("urls");
+		this.maxSizeBytes = maxSizeBytes;
+
+		try {
+			Files.createDirectories(blobsDir);
+			Files.createDirectories(urlsDir);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to create asset cache in " + root, e);
+		}
+
+		// Rebuild the LRU order from the last access times left by previous runs
+		File[] existing = blobsDir.toFile().listFiles(f -> f.isFile() && !f.getName().endsWith(".tmp"));
+		if (existing != null) {
+			Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+			for (File blob : existing) {
+				blobs.put(blob.getName(), blob.length());
+				totalSize += blob.length();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Returns the cached file for the URL, downloading it first if needed.
+	 * The file is shared: do not modify it.
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public Path get(String url) throws IOException {
+		String contentHash = lookup(url);
+		if (contentHash != null) {
+			hits.incrementAndGet();
+			return blobsDir.resolve(contentHash);
+		}
+
+		return blobsDir.resolve(fetch(url));
+	}
+
+	/**
+	 * Copies the content of the URL to target, downloading it only if it's not cached yet.
+	 * @param url
+	 * @param target
+	 * @throws IOException
+	 */
+	public void copyTo(String url, Path target) throws IOException {
+		try {
+			Files.copy(get(url), target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (NoSuchFileException e) {
+			// Evicted between lookup and copy, fetch it again
+			Files.copy(blobsDir.resolve(fetch(url)), target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized long getSize() {
+		return totalSize;
+	}
+
+	private Path urlFile(String url) {
+		return urlsDir.resolve(Hashing.sha256Hash(url));
+	}
+
+	private synchronized String lookup(String url) throws IOException {
+		Path urlFile = urlFile(url);
+		if (!Files.exists(urlFile)) return null;
+
+		String contentHash = new String(Files.readAllBytes(urlFile), StandardCharsets.UTF_8).trim();
+		if (blobs.get(contentHash) == null) {
+			// Blob was evicted, the mapping is stale
+			Files.deleteIfExists(urlFile);
+			return null;
+		}
+
+		// Persist the access, so the LRU order survives restarts
+		Files.setLastModifiedTime(blobsDir.resolve(contentHash), FileTime.fromMillis(System.currentTimeMillis()));
+		return contentHash;
+	}
+
+	/**
+	 * Downloads the URL, unless another thread is already doing it,
+	 * in which case waits for that download instead.
+	 * @return the content hash
+	 */
+	private String fetch(String url) throws IOException {
+		CompletableFuture<String> download = new CompletableFuture<>();
+		CompletableFuture<String> existing = inFlight.putIfAbsent(url, download);
+
+		if (existing != null) {
+			hits.incrementAndGet();
+			return await(existing);
+		}
+
+		try {
+			misses.incrementAndGet();
+			byte[] bytes;
+			Request request = Request.Get(url);
+			try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
+				bytes = request.execute().returnContent().asBytes();
+			}
+			String contentHash = store(url, bytes);
+			download.complete(contentHash);
+			return contentHash;
+		} catch (IOException | RuntimeException e) {
+			download.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(url);
+		}
+	}
+
+	private String await(CompletableFuture<String> download) throws IOException {
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a download");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private String store(String url, byte[] bytes) throws IOException {
+		String contentHash = Hashing.sha256Hash(bytes);
+		Path blob = blobsDir.resolve(contentHash);
+
+		// Write outside the lock, the rename makes the blob appear atomically
+		Path tmp = Files.createTempFile(blobsDir, contentHash, ".tmp");
+		try {
+			Files.write(tmp, bytes);
+			Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		synchronized (this) {
+			if (blobs.put(contentHash, (long) bytes.length) == null)
+				totalSize += bytes.length;
+
+			Files.write(urlFile(url), contentHash.getBytes(StandardCharsets.UTF_8));
+			evict();
+		}
+
+		return contentHash;
+	}
+
+	/**
+	 * Removes least recently used blobs until the cache fits its size cap.
+	 * The most recent blob is always kept, even if alone it's over the cap.
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = blobs.entrySet().iterator();
+		while (totalSize > maxSizeBytes && blobs.size() > 1 && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			try {
+				Files.deleteIfExists(blobsDir.resolve(eldest.getKey()));
+			} catch (IOException e) {
+				logger.warning("Unable to evict " + eldest.getKey() + ": " + e.getMessage());
+				continue;
+			}
+			totalSize -= eldest.getValue();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.autovideo.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.autovideo.AutovideoConf;
+
+/**
+ * On-disk cache of encoded section segments, so re-rendering an article only
+ * re-encodes the sections that changed.
+ *
+ * Segments are keyed by a fingerprint of everything that affects them (see
+ * VideoRenderer), computed before any speech synthesis or download, so a reused
+ * section costs nothing but a file copy. The total size is capped: the least
+ * recently used segments are evicted first.
+ */
+public class SegmentCache {
+	private static final Logger logger = Logger.getLogger(SegmentCache.class.getName());
+
+	private static final String EXTENSION = ".mp4";
+
+	private static SegmentCache instance = null;
+
+	private final Path root;
+
+	private final long maxSizeBytes;
+
+	/**
+	 * Fingerprint -> size, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<String, Long> segments = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalSize = 0;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	public synchronized static SegmentCache getInstance() {
+		if (instance == null) {
+			AutovideoConf conf = AutovideoConf.getInstance();
+			instance = new SegmentCache(Paths.get(conf.getSegmentCacheDir()), conf.getSegmentCacheMaxBytes());
+		}
+		return instance;
+	}
+
+	public SegmentCache(Path root, long maxSizeBytes) {
+		this.root = root;
+		this.maxSizeBytes = maxSizeBytes;
+
+		try {
+			Files.createDirectories(root);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to create segment cache in " + root, e);
+		}
+
+		// Rebuild the LRU order from the last access times left by previous runs
+		File[] existing = root.toFile().listFiles(f -> f.isFile() && f.getName().endsWith(EXTENSION));
+		if (existing != null) {
+			Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+			for (File segment : existing) {
+				segments.put(segment.getName().substring(0, segment.getName().length() - EXTENSION.length()), segment.length());
+				totalSize += segment.length();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Copies the segment with the given fingerprint to target.
+	 * @return false if there is no such segment
+	 */
+	public boolean copyTo(String fingerprint, Path target) throws IOException {
+		synchronized (this) {
+			if (segments.get(fingerprint) == null) {
+				misses.incrementAndGet();
+				return false;
+			}
+		}
+
+		Path segment = root.resolve(fingerprint + EXTENSION);
+		try {
+			Files.copy(segment, target, StandardCopyOption.REPLACE_EXISTING);
+			// Persist the access, so the LRU order survives restarts
+			Files.setLastModifiedTime(segment, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (NoSuchFileException e) {
+			// Evicted in the meantime
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Stores a copy of an encoded segment
+	 */
+	public void put(String fingerprint, Path segment) throws IOException {
+		Path entry = root.resolve(fingerprint + EXTENSION);
+
+		// Copy outside the lock, the rename makes the segment appear atomically
+		Path tmp = Files.createTempFile(root, fingerprint, ".tmp");
+		try {
+			Files.copy(segment, tmp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		long size = Files.size(entry);
+		synchronized (this) {
+			Long previous = segments.put(fingerprint, size);
+			totalSize += size - (previous != null ? previous : 0);
+			evict();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Removes least recently used segments until the cache fits its size cap.
+	 * The most recent segment is always kept, even if alone it's over the cap.
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = segments.entrySet().iterator();
+		while (totalSize > maxSizeBytes && segments.size() > 1 && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			try {
+				Files.deleteIfExists(root.resolve(eldest.getKey() + EXTENSION));
+			} catch (IOException e) {
+				logger.warning("Unable to evict segment " + eldest.getKey() + ": " + e.getMessage());
+				continue;
+			}
+			totalSize -= eldest.getValue();
+			it.remove();
+		}
+	}
+}
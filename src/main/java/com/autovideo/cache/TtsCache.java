@@ -0,0 +1,115 @@
+package com.autovideo.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.autovideo.AutovideoConf;
+import com.autovideo.utils.Hashing;
+
+/**
+ * Persistent cache of Polly outputs (MP3 audio and speech marks), so a section whose
+ * text did not change is never synthesized twice, e.g. when re-rendering an article
+ * with different images or after an ffmpeg failure.
+ *
+ * Entries are keyed by a hash of everything that changes the output: the normalized
+ * text, voice, engine, language, whether it's SSML and the output kind.
+ */
+public class TtsCache {
+
+	private static TtsCache instance = null;
+
+	private final Path root;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * Produces the output on a cache miss
+	 */
+	public interface Synthesizer {
+		InputStream synthesize() throws IOException;
+	}
+
+	public synchronized static TtsCache getInstance() {
+		if (instance == null)
+			instance = new TtsCache(Paths.get(AutovideoConf.getInstance().getTtsCacheDir()));
+		return instance;
+	}
+
+	public TtsCache(Path root) {
+		this.root = root;
+		try {
+			Files.createDirectories(root);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to create TTS cache in " + root, e);
+		}
+	}
+
+	/**
+	 * Collapses whitespace, so formatting differences in the article text
+	 * don't cause new synthesis requests
+	 * @param text
+	 * @return
+	 */
+	public static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * Builds the cache key for a synthesis request.
+	 * @param text the text as it is sent to Polly (normalized by this method)
+	 * @param voice
+	 * @param engine
+	 * @param language
+	 * @param ssml
+	 * @param kind what is produced, e.g. the output format
+	 * @return
+	 */
+	public static String key(String text, Object voice, Object engine, Object language, boolean ssml, String kind) {
+		return Hashing.sha256Hash(String.join("\u0000",
+			normalize(text), String.valueOf(voice), String.valueOf(engine),
+			String.valueOf(language), String.valueOf(ssml), kind));
+	}
+
+	/**
+	 * Returns the cached output for the key, calling the synthesizer only if it's not cached yet.
+	 * The file is shared: do not modify it.
+	 * @param key see key()
+	 * @param extension file extension of the output
+	 * @param synthesizer
+	 * @return
+	 * @throws IOException
+	 */
+	public Path get(String key, String extension, Synthesizer synthesizer) throws IOException {
+		Path entry = root.resolve(key + "." + extension);
+		if (Files.exists(entry)) {
+			hits.incrementAndGet();
+			return entry;
+		}
+
+		misses.incrementAndGet();
+		Path tmp = Files.createTempFile(root, key, ".tmp");
+		try {
+			try (InputStream in = synthesizer.synthesize()) {
+				Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			// Same key means same content, so a concurrent writer is harmless
+			Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return entry;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+}
@@ -17,7 +17,9 @@ import com.autovideo.img.ImageCategory;
 import com.autovideo.service.ProgressListener;
 import com.autovideo.service.WikiVideoRequest;
 import com.autovideo.service.WikipediaVideoService;
+import com.autovideo.utils.CancellationToken;
 import com.autovideo.utils.Language;
+import com.autovideo.video.RenderProfile;
 
 import java.io.File;
 import java.io.IOException;
@@ -25,6 +27,7 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 
 /**
  * Main GUI application for Wikipedia Autovideo.
@@ -35,6 +38,7 @@ public class WikipediaAutovideoApp extends Application {
     private TextField articleField;
     private ComboBox<String> engineCombo;
     private ComboBox<String> languageCombo;
+    private ComboBox<String> qualityCombo;
     private TextField outputDirField;
     private Button browseDirButton;
     private CheckBox advancedCheckbox;
@@ -42,6 +46,7 @@ public class WikipediaAutovideoApp extends Application {
     private TextArea statusArea;
     private ProgressBar progressBar;
     private Button generateButton;
+    private Button cancelButton;
     private Button openFolderButton;
     
     // Advanced settings
@@ -54,6 +59,9 @@ public class WikipediaAutovideoApp extends Application {
     private WikipediaVideoService service;
     private File selectedOutputDir;
     
+    // Token of the generation in progress, null when idle
+    private volatile CancellationToken currentGeneration;
+    
     @Override
     public void start(Stage primaryStage) {
         service = new WikipediaVideoService();
@@ -123,6 +131,17 @@ public class WikipediaAutovideoApp extends Application {
         languageCombo.setPrefWidth(200);
         langBox.getChildren().addAll(langLabel, languageCombo);
         
+        // Render quality dropdown, drafts are quick to review before the final render
+        HBox qualityBox = new HBox(10);
+        qualityBox.setAlignment(Pos.CENTER_LEFT);
+        Label qualityLabel = new Label("Render Quality:");
+        qualityLabel.setPrefWidth(150);
+        qualityCombo = new ComboBox<>();
+        qualityCombo.getItems().addAll("FINAL", "DRAFT");
+        qualityCombo.setValue("FINAL");
+        qualityCombo.setPrefWidth(200);
+        qualityBox.getChildren().addAll(qualityLabel, qualityCombo);
+        
         // Output directory picker
         HBox outputBox = new HBox(10);
         outputBox.setAlignment(Pos.CENTER_LEFT);
@@ -146,6 +165,7 @@ public class WikipediaAutovideoApp extends Application {
             articleBox,
             engineBox,
             langBox,
+            qualityBox,
             outputBox
         );
         
@@ -269,6 +289,11 @@ public class WikipediaAutovideoApp extends Application {
         generateButton.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
         generateButton.setOnAction(e -> startVideoGeneration());
         
+        cancelButton = new Button("Cancel");
+        cancelButton.setPrefWidth(100);
+        cancelButton.setDisable(true);
+        cancelButton.setOnAction(e -> cancelVideoGeneration());
+        
         openFolderButton = new Button("Open Output Folder");
         openFolderButton.setPrefWidth(150);
         openFolderButton.setOnAction(e -> openOutputFolder());
@@ -277,7 +302,7 @@ public class WikipediaAutovideoApp extends Application {
         settingsButton.setPrefWidth(100);
         settingsButton.setOnAction(e -> showSettingsDialog());
         
-        section.getChildren().addAll(generateButton, openFolderButton, settingsButton);
+        section.getChildren().addAll(generateButton, cancelButton, openFolderButton, settingsButton);
         
         return section;
     }
@@ -364,6 +389,7 @@ public class WikipediaAutovideoApp extends Application {
         
         // Disable button during generation
         generateButton.setDisable(true);
+        cancelButton.setDisable(false);
         statusArea.clear();
         progressBar.setProgress(0);
         
@@ -385,6 +411,7 @@ public class WikipediaAutovideoApp extends Application {
             .imageCategory(category)
             .outputDirectory(selectedOutputDir.toPath())
             .withAudio(true)
+            .renderProfile(RenderProfile.valueOf(qualityCombo.getValue()))
             .build();
         
         // Create progress listener
@@ -411,23 +438,31 @@ public class WikipediaAutovideoApp extends Application {
                     error.printStackTrace();
                     showAlert(Alert.AlertType.ERROR, "Generation Failed",
                         "An error occurred: " + error.getMessage());
-                    generateButton.setDisable(false);
+                    generationFinished();
                 });
             }
         };
         
         // Run generation in background thread
+        CancellationToken token = new CancellationToken();
+        currentGeneration = token;
         Thread generationThread = new Thread(() -> {
             try {
-                service.generateVideo(request, listener);
+                service.generateVideo(request, listener, token);
                 
                 Platform.runLater(() -> {
-                    generateButton.setDisable(false);
+                    generationFinished();
                     showAlert(Alert.AlertType.INFORMATION, "Success",
                         "Video generation completed successfully!\n\n" +
                         "Output saved to: " + selectedOutputDir.getAbsolutePath());
                 });
                 
+            } catch (CancellationException e) {
+                Platform.runLater(() -> {
+                    logStatus("\nGeneration cancelled, temporary files removed.");
+                    progressBar.setProgress(0);
+                    generationFinished();
+                });
             } catch (Exception e) {
                 listener.onError(e);
             }
@@ -437,6 +472,25 @@ public class WikipediaAutovideoApp extends Application {
         generationThread.start();
     }
     
+    /**
+     * Stops the generation in progress: downloads are aborted and ffmpeg is killed,
+     * the generation thread then cleans up and re-enables the buttons.
+     */
+    private void cancelVideoGeneration() {
+        CancellationToken token = currentGeneration;
+        if (token != null) {
+            cancelButton.setDisable(true);
+            logStatus("\nCancelling...");
+            token.cancel();
+        }
+    }
+    
+    private void generationFinished() {
+        currentGeneration = null;
+        generateButton.setDisable(false);
+        cancelButton.setDisable(true);
+    }
+    
     private void openOutputFolder() {
         if (selectedOutputDir == null || !selectedOutputDir.exists()) {
             showAlert(Alert.AlertType.WARNING, "Invalid Directory",
@@ -5,6 +5,6 @@ public enum ImageCategory {
 	
 	
 	public String toString() {
-		return toString().toLowerCase();
+		return name().toLowerCase();
 	}
 }
@@ -6,8 +6,11 @@ import java.awt.FontFormatException;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 
-import com.autovideo.utils.ProcessRunner;
+import com.autovideo.cache.AssetCache;
+import com.autovideo.process.ExternalProcess;
 import com.autovideo.wiki.WikiVideo;
 
 import ij.IJ;
@@ -26,10 +29,27 @@ public class ImgUtils {
 	
 	private static final String GEOMETOS = "data/fonts/Geometos_Wide.ttf";
 
+	/**
+	 * Saves the image at the given URL to outputFile, going through the shared asset
+	 * cache so that images used by several sections, videos or jobs are downloaded once.
+	 * @param url
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public static void download(String url, String outputFile) throws IOException {
+		AssetCache.getInstance().copyTo(url, Paths.get(outputFile));
+	}
+	
 	public static void convert(String inputFile, String outputFile) {
 		try {
-			ProcessRunner.run("convert", inputFile, outputFile);
-		} catch (IOException | InterruptedException e) {
+			new ExternalProcess.Builder("convert", inputFile, outputFile)
+				.timeout(Duration.ofMinutes(2))
+				.build()
+				.run();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new RuntimeException(e);
 		}
 	}
@@ -54,7 +74,7 @@ public class ImgUtils {
 	
 	private static final int MARGIN_LEFT = 20;
 
-	public static void createInfoImage(String outputFile, WikiVideo video) throws FontFormatException, IOException {
+	public static synchronized void createInfoImage(String outputFile, WikiVideo video) throws FontFormatException, IOException {
 		int lineWidth = 16;
 		int marginTop = 20;
 		
@@ -97,7 +117,11 @@ public class ImgUtils {
 		return createCaptionedImage(inputFile, captionText, false);
 	}
 	
-	public static boolean createCaptionedImage(String inputFile, String captionText, boolean forceNormalView) {
+	/**
+	 * Synchronized because ImageJ keeps text and line settings (TextRoi.setColor, Line.setWidth)
+	 * in static fields shared by all the jobs running in this JVM.
+	 */
+	public static synchronized boolean createCaptionedImage(String inputFile, String captionText, boolean forceNormalView) {
 		
 		captionText = " " + captionText;
 
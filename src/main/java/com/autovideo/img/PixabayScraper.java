@@ -15,6 +15,7 @@ import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.fluent.Request;
 
 import com.autovideo.AutovideoConf;
+import com.autovideo.utils.CancellationToken;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -60,9 +61,10 @@ public class PixabayScraper {
 		String finalKeyword = keyword + " " + String.join(" ", BLACKLIST);
 		String finalUrl = url.replace("$QUERY$", URLEncoder.encode(finalKeyword, "UTF-8"));
 			
-		try {
+		Request request = Request.Get(finalUrl);
+		try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
 			String content = 
-				Request.Get(finalUrl)
+				request
 					.execute()
 					.returnContent()
 					.asString();
@@ -122,9 +124,10 @@ public class PixabayScraper {
 		for (int i = 1; i <= 1; i++) {
 			String finalUrl = url.replace("$QUERY$", URLEncoder.encode(keyword + " " + String.join(" ", BLACKLIST), "UTF-8")) + i;
 			
-			try {
+			Request request = Request.Get(finalUrl);
+			try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
 				String content = 
-					Request.Get(finalUrl)
+					request
 						.execute()
 						.returnContent()
 						.asString();
@@ -0,0 +1,291 @@
+package com.autovideo.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import com.autovideo.utils.CancellationToken;
+
+/**
+ * Runs an external command (ffmpeg, convert...) and waits for it to end.
+ *
+ * The command is passed as an argv list, so nothing goes through a shell.
+ * stdout and stderr are merged and only the last lines are kept, for the error
+ * message; nothing is printed. An output handler can take the lines of a
+ * machine-readable channel (e.g. ffmpeg -progress) before they are kept.
+ * The I/O of the process is handled by a pool of daemon threads shared by all
+ * the processes, so idle threads are reused.
+ *
+ * A process is killed (with its children) when it runs past its timeout,
+ * when the waiting thread is interrupted, when cancel() is called or when
+ * the CancellationToken bound to the thread that runs it is cancelled.
+ */
+public class ExternalProcess {
+	private static final Logger logger = Logger.getLogger(ExternalProcess.class.getName());
+
+	/**
+	 * How often the CPU time of a running process is sampled. The OS forgets it once the
+	 * process is reaped, so what it used after the last sample is not counted.
+	 */
+	private static final long CPU_SAMPLE_MILLIS = 250;
+
+	/**
+	 * How long to wait for the rest of the output once the process is gone
+	 */
+	private static final long DRAIN_TIMEOUT_SECONDS = 5;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static final ExecutorService ioThreads = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "process-io-" + threadCount.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final List<String> command;
+
+	private final Duration timeout;
+
+	private final byte[] input;
+
+	private final Path directory;
+
+	private final int outputLines;
+
+	private final Predicate<String> outputHandler;
+
+	private Process process = null;
+
+	private boolean cancelled = false;
+
+	private ExternalProcess(Builder builder) {
+		this.command = Collections.unmodifiableList(new ArrayList<>(builder.command));
+		this.timeout = builder.timeout;
+		this.input = builder.input;
+		this.directory = builder.directory;
+		this.outputLines = builder.outputLines;
+		this.outputHandler = builder.outputHandler;
+	}
+
+	/**
+	 * Starts the process and waits for it to end.
+	 * @return the result, only if the exit code is 0
+	 * @throws ProcessFailedException if the exit code is not 0 or the timeout expired
+	 * @throws InterruptedIOException if cancel() was called, or the job of the current thread was cancelled
+	 * @throws InterruptedException if the current thread was interrupted (the process is killed)
+	 * @throws IOException if the process can't be started
+	 */
+	public ProcessResult run() throws IOException, InterruptedException {
+		try (CancellationToken.Scope scope = CancellationToken.current().onCancel(this::cancel)) {
+			return execute();
+		}
+	}
+
+	private ProcessResult execute() throws IOException, InterruptedException {
+		OutputRingBuffer output = new OutputRingBuffer(outputLines);
+
+		ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+		if (directory != null)
+			builder.directory(directory.toFile());
+
+		long start = System.nanoTime();
+		Process started;
+		synchronized (this) {
+			if (cancelled)
+				throw new InterruptedIOException("Cancelled before start: " + command.get(0));
+			started = builder.start();
+			process = started;
+		}
+		logger.fine("Started: " + String.join(" ", command));
+
+		Future<?> drain = ioThreads.submit(() -> drain(started.getInputStream(), output));
+		Future<?> feed = ioThreads.submit(() -> feed(started.getOutputStream()));
+
+		Duration cpuTime = Duration.ZERO;
+		boolean timedOut = false;
+		try {
+			long deadline = timeout == null ? Long.MAX_VALUE : start + timeout.toNanos();
+			while (!started.waitFor(CPU_SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+				cpuTime = started.toHandle().info().totalCpuDuration().orElse(cpuTime);
+				if (System.nanoTime() > deadline) {
+					timedOut = true;
+					kill(started);
+					started.waitFor();
+				}
+			}
+		} catch (InterruptedException e) {
+			kill(started);
+			throw e;
+		} finally {
+			feed.cancel(true);
+			synchronized (this) {
+				process = null;
+			}
+		}
+
+		awaitDrain(drain);
+
+		boolean killed;
+		synchronized (this) {
+			killed = timedOut || cancelled;
+		}
+		ProcessResult result = new ProcessResult(command, started.exitValue(), killed,
+			Duration.ofNanos(System.nanoTime() - start), cpuTime, output);
+		logger.fine("Finished: " + result);
+
+		if (killed && !timedOut)
+			throw new InterruptedIOException("Cancelled: " + command.get(0));
+		if (timedOut || result.getExitCode() != 0)
+			throw new ProcessFailedException(result, timedOut);
+
+		return result;
+	}
+
+	/**
+	 * Kills the process if it's running, or prevents it from starting.
+	 * Safe to call from any thread, run() then throws InterruptedIOException.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			cancelled = true;
+			if (process != null)
+				kill(process);
+		}
+	}
+
+	public List<String> getCommand() {
+		return command;
+	}
+
+	private static void kill(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+
+	private void feed(OutputStream stdin) {
+		try (OutputStream out = stdin) {
+			if (input != null)
+				out.write(input);
+		} catch (IOException e) {
+			// The process stopped reading early, its exit code tells if that's an error
+		}
+	}
+
+	private void drain(InputStream stdout, OutputRingBuffer output) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stdout, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (outputHandler == null || !outputHandler.test(line))
+					output.add(line);
+			}
+		} catch (IOException e) {
+			// Stream closed because the process was killed
+		}
+	}
+
+	private static void awaitDrain(Future<?> drain) throws InterruptedException {
+		try {
+			drain.get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			// Some orphaned child still holds the pipe, the output we have is enough
+			drain.cancel(true);
+		}
+	}
+
+	public static class Builder {
+		private final List<String> command = new ArrayList<>();
+
+		private Duration timeout = null;
+
+		private byte[] input = null;
+
+		private Path directory = null;
+
+		private int outputLines = 100;
+
+		private Predicate<String> outputHandler = null;
+
+		public Builder(String... command) {
+			this.command.addAll(Arrays.asList(command));
+		}
+
+		public Builder(List<String> command) {
+			this.command.addAll(command);
+		}
+
+		public Builder args(String... args) {
+			this.command.addAll(Arrays.asList(args));
+			return this;
+		}
+
+		public Builder args(List<String> args) {
+			this.command.addAll(args);
+			return this;
+		}
+
+		/**
+		 * Kill the process if it runs longer than this (default: no timeout)
+		 */
+		public Builder timeout(Duration timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * Bytes written to the stdin of the process (default: none, stdin is closed)
+		 */
+		public Builder input(byte[] input) {
+			this.input = input;
+			return this;
+		}
+
+		public Builder directory(Path directory) {
+			this.directory = directory;
+			return this;
+		}
+
+		/**
+		 * How many lines of output to keep for diagnostics (default: 100)
+		 */
+		public Builder outputLines(int outputLines) {
+			this.outputLines = outputLines;
+			return this;
+		}
+
+		/**
+		 * Called from an I/O thread with every line of output, as soon as it's read.
+		 * Lines for which the handler returns true are consumed and not kept for diagnostics.
+		 */
+		public Builder outputHandler(Predicate<String> outputHandler) {
+			this.outputHandler = outputHandler;
+			return this;
+		}
+
+		public ExternalProcess build() {
+			if (command.isEmpty())
+				throw new IllegalArgumentException("Command can't be empty");
+			if (outputLines < 1)
+				throw new IllegalArgumentException("Output lines must be at least 1");
+			return new ExternalProcess(this);
+		}
+	}
+}
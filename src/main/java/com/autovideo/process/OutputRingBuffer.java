@@ -0,0 +1,51 @@
+package com.autovideo.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps the last lines written by a process, for error messages.
+ * Older lines are dropped, so memory stays bounded however verbose the process is.
+ */
+public class OutputRingBuffer {
+	private final int capacity;
+
+	private final Deque<String> lines;
+
+	private long totalLines = 0;
+
+	public OutputRingBuffer(int capacity) {
+		this.capacity = capacity;
+		this.lines = new ArrayDeque<>(capacity);
+	}
+
+	public synchronized void add(String line) {
+		if (lines.size() == capacity)
+			lines.removeFirst();
+		lines.addLast(line);
+		totalLines++;
+	}
+
+	public synchronized List<String> getLines() {
+		return new ArrayList<>(lines);
+	}
+
+	/**
+	 * @return how many lines were written in total, including the dropped ones
+	 */
+	public synchronized long getTotalLines() {
+		return totalLines;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder out = new StringBuilder();
+		if (totalLines > lines.size())
+			out.append("[... ").append(totalLines - lines.size()).append(" lines omitted]\n");
+		for (String line : lines)
+			out.append(line).append('\n');
+		return out.toString();
+	}
+}
@@ -0,0 +1,30 @@
+package com.autovideo.process;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an external process exits with an error or runs past its timeout.
+ * The message includes the tail of the process output.
+ */
+public class ProcessFailedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final ProcessResult result;
+
+	private final boolean timedOut;
+
+	ProcessFailedException(ProcessResult result, boolean timedOut) {
+		super((timedOut ? "Timed out: " : "Failed with exit code " + result.getExitCode() + ": ")
+			+ String.join(" ", result.getCommand()) + "\n" + result.getOutput());
+		this.result = result;
+		this.timedOut = timedOut;
+	}
+
+	public ProcessResult getResult() {
+		return result;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+}
@@ -0,0 +1,75 @@
+package com.autovideo.process;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Outcome of an ExternalProcess run: exit code, timings and the tail of its output.
+ */
+public class ProcessResult {
+	private final List<String> command;
+
+	private final int exitCode;
+
+	private final boolean killed;
+
+	private final Duration wallTime;
+
+	private final Duration cpuTime;
+
+	private final OutputRingBuffer output;
+
+	ProcessResult(List<String> command, int exitCode, boolean killed, Duration wallTime, Duration cpuTime, OutputRingBuffer output) {
+		this.command = command;
+		this.exitCode = exitCode;
+		this.killed = killed;
+		this.wallTime = wallTime;
+		this.cpuTime = cpuTime;
+		this.output = output;
+	}
+
+	public List<String> getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return the exit code. A process ended by a signal reports 128 + the signal
+	 * number on Linux, e.g. 137 when killed, see wasKilled()
+	 */
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * @return true if ExternalProcess killed the process, because of its timeout or cancel()
+	 */
+	public boolean wasKilled() {
+		return killed;
+	}
+
+	public Duration getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * @return user + system time of the process, as last sampled while it was running
+	 * (the OS forgets it once the process is gone), ZERO if not available. It's a lower
+	 * bound: up to 250 ms of run time after the last sample are not counted, and a process
+	 * shorter than that reports ZERO.
+	 */
+	public Duration getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * @return the last lines of stdout and stderr (merged)
+	 */
+	public OutputRingBuffer getOutput() {
+		return output;
+	}
+
+	@Override
+	public String toString() {
+		return command.get(0) + " exit=" + exitCode + (killed ? " (killed)" : "") + " wall=" + wallTime.toMillis() + "ms cpu=" + cpuTime.toMillis() + "ms";
+	}
+}
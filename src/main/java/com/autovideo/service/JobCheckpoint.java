@@ -0,0 +1,287 @@
+package com.autovideo.service;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.autovideo.AutovideoConf;
+import com.autovideo.utils.Hashing;
+import com.autovideo.video.SectionOverlay;
+import com.autovideo.wiki.WikiSection;
+import com.autovideo.wiki.WikiVideo;
+import com.autovideo.wikipedia.datatypes.WikipediaItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * What a generation job already completed, saved after every stage so that a job
+ * failing half way (a Pixabay error, a killed ffmpeg) continues from the last good
+ * point when the same request is run again, instead of starting from the download.
+ *
+ * Each request gets a directory under checkpoint_dir (see AutovideoConf) with one
+ * JSON file per stage, each written atomically. The directory is locked while a job
+ * has it open, so the same request can't run twice at once, in this or another
+ * process. Speech and encoded sections are not stored here: they are already kept
+ * by TtsCache and SegmentCache, and since the saved stages give back the same
+ * sections and images, a resumed job finds them there.
+ * The checkpoint is deleted when the job completes.
+ */
+public class JobCheckpoint implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(JobCheckpoint.class.getName());
+
+    private static final Gson gson = new Gson();
+
+    private static final String ARTICLE_FILE = "article.json";
+    private static final String FACTS_FILE = "wikidata.json";
+    private static final String VIDEOS_FILE = "videos.json";
+    private static final String DONE_FILE = "done.json";
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * What the Wikidata stage found about the subject
+     */
+    public static class WikidataFacts {
+        private final String flagImage;
+        private final float latitude;
+        private final float longitude;
+        private final SectionOverlay overlay;
+
+        public WikidataFacts(String flagImage, float latitude, float longitude, SectionOverlay overlay) {
+            this.flagImage = flagImage;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.overlay = overlay;
+        }
+
+        public String getFlagImage() {
+            return flagImage;
+        }
+
+        public float getLatitude() {
+            return latitude;
+        }
+
+        public float getLongitude() {
+            return longitude;
+        }
+
+        public SectionOverlay getOverlay() {
+            return overlay;
+        }
+    }
+
+    /**
+     * A WikiVideo without its page, which is saved only once in article.json
+     */
+    private static class VideoState {
+        private String title;
+        private int estimatedLength;
+        private List<WikiSection> sections;
+    }
+
+    private final Path directory;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final Set<String> doneVideos = new HashSet<>();
+
+    private JobCheckpoint(Path directory, FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the checkpoint of the request, creating it if the request was never run.
+     * Requests that would produce different videos never share a checkpoint.
+     * The checkpoint stays locked until it's closed.
+     * @throws IOException if another job is running the same request
+     */
+    public static JobCheckpoint open(WikiVideoRequest request) throws IOException {
+        String key = Hashing.sha256Hash(String.join("\u0000",
+            request.getArticleTitle(), String.valueOf(request.getLanguage()),
+            String.valueOf(request.getImageCategory()), String.valueOf(request.getVoiceEngine()),
+            String.valueOf(request.isWithAudio()), String.valueOf(request.getRenderProfile()),
+            request.getOutputDirectory().toAbsolutePath().normalize().toString()));
+        String name = request.getArticleTitle().replaceAll("[^A-Za-z0-9_\\-]", "_");
+        if (name.length() > 40) {
+            name = name.substring(0, 40);
+        }
+
+        Path directory = Paths.get(AutovideoConf.getInstance().getCheckpointDir()).resolve(name + "-" + key.substring(0, 16));
+        Files.createDirectories(directory);
+
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            // Null if another process holds it, OverlappingFileLockException if this one does
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The checkpoint " + directory + " is in use, the same request is already running");
+        }
+
+        JobCheckpoint checkpoint = new JobCheckpoint(directory, lockChannel, lock);
+        try {
+            Set<String> done = checkpoint.read(DONE_FILE, new TypeToken<Set<String>>() {}.getType());
+            if (done != null) {
+                checkpoint.doneVideos.addAll(done);
+            }
+        } catch (IOException | RuntimeException e) {
+            checkpoint.close();
+            throw e;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the article saved by a previous run, or null
+     */
+    public WikipediaItem loadArticle() throws IOException {
+        return read(ARTICLE_FILE, WikipediaItem.class);
+    }
+
+    public void saveArticle(WikipediaItem article) throws IOException {
+        write(ARTICLE_FILE, article.toJson());
+    }
+
+    /**
+     * @return the Wikidata facts saved by a previous run, or null
+     */
+    public WikidataFacts loadWikidataFacts() throws IOException {
+        return read(FACTS_FILE, WikidataFacts.class);
+    }
+
+    public void saveWikidataFacts(WikidataFacts facts) throws IOException {
+        write(FACTS_FILE, gson.toJson(facts));
+    }
+
+    /**
+     * @param page the article the videos were made from, see loadArticle()
+     * @return the videos, with their sections and selected images and clips, saved by
+     * a previous run, or null
+     */
+    public List<WikiVideo> loadVideos(WikipediaItem page) throws IOException {
+        List<VideoState> states = read(VIDEOS_FILE, new TypeToken<List<VideoState>>() {}.getType());
+        if (states == null) {
+            return null;
+        }
+
+        List<WikiVideo> videos = new ArrayList<>();
+        for (VideoState state : states) {
+            WikiVideo video = new WikiVideo(state.sections, state.title, page);
+            video.setEstimatedLength(state.estimatedLength);
+            videos.add(video);
+        }
+        return videos;
+    }
+
+    /**
+     * Saves the videos as they come out of the aggregation, before any of them is rendered
+     */
+    public void saveVideos(List<WikiVideo> videos) throws IOException {
+        List<VideoState> states = new ArrayList<>();
+        for (WikiVideo video : videos) {
+            VideoState state = new VideoState();
+            state.title = video.getTitle();
+            state.estimatedLength = video.getEstimatedLength();
+            state.sections = video.getSections();
+            states.add(state);
+        }
+        write(VIDEOS_FILE, gson.toJson(states));
+    }
+
+    /**
+     * @param outputFileName see PreparedArticle.PreparedVideo
+     * @return true if the video was already rendered and saved by a previous run
+     */
+    public synchronized boolean isVideoDone(String outputFileName) {
+        return doneVideos.contains(outputFileName);
+    }
+
+    public synchronized void markVideoDone(String outputFileName) throws IOException {
+        doneVideos.add(outputFileName);
+        write(DONE_FILE, gson.toJson(doneVideos));
+    }
+
+    /**
+     * Forgets everything, for when the job has to start over
+     */
+    public synchronized void clear() throws IOException {
+        doneVideos.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals(LOCK_FILE)) {
+                    FileUtils.forceDelete(file.toFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the checkpoint, once the job is complete. It stays locked until closed.
+     */
+    public void delete() {
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    /**
+     * Releases the lock, the checkpoint can then be opened by another job
+     */
+    @Override
+    public void close() {
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warning("Unable to release the checkpoint lock " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private <T> T read(String fileName, Type type) throws IOException {
+        Path file = directory.resolve(fileName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            return gson.fromJson(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), type);
+        } catch (JsonParseException e) {
+            // Written by an older version, the stage will just run again
+            logger.warning("Ignoring unreadable checkpoint " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(String fileName, String json) throws IOException {
+        Path tmp = Files.createTempFile(directory, fileName, ".tmp");
+        try {
+            Files.write(tmp, json.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
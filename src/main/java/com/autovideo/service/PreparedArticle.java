@@ -0,0 +1,87 @@
+package com.autovideo.service;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.autovideo.utils.Workspace;
+import com.autovideo.video.RenderPlan;
+import com.autovideo.video.VideoRenderer;
+
+/**
+ * An article that went through all the network bound stages
+ * (download, Wikidata, images, speech) and only needs to be encoded.
+ * Owns the job workspace and checkpoint: closing it deletes every intermediate file
+ * and unlocks the checkpoint.
+ */
+public class PreparedArticle implements AutoCloseable {
+    
+    /**
+     * One of the videos the article was split into, ready for VideoRenderer.encode()
+     */
+    public static class PreparedVideo {
+        private final VideoRenderer renderer;
+        private final RenderPlan plan;
+        private final String outputFileName;
+        private final Path thumbnail;
+        
+        public PreparedVideo(VideoRenderer renderer, RenderPlan plan, String outputFileName, Path thumbnail) {
+            this.renderer = renderer;
+            this.plan = plan;
+            this.outputFileName = outputFileName;
+            this.thumbnail = thumbnail;
+        }
+        
+        public VideoRenderer getRenderer() {
+            return renderer;
+        }
+        
+        public RenderPlan getPlan() {
+            return plan;
+        }
+        
+        public String getOutputFileName() {
+            return outputFileName;
+        }
+        
+        public Path getThumbnail() {
+            return thumbnail;
+        }
+    }
+    
+    private final WikiVideoRequest request;
+    private final Workspace workspace;
+    private final List<PreparedVideo> videos;
+    private final JobCheckpoint checkpoint;
+    
+    public PreparedArticle(WikiVideoRequest request, Workspace workspace, List<PreparedVideo> videos, JobCheckpoint checkpoint) {
+        this.request = request;
+        this.workspace = workspace;
+        this.videos = videos;
+        this.checkpoint = checkpoint;
+    }
+    
+    public WikiVideoRequest getRequest() {
+        return request;
+    }
+    
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+    
+    /**
+     * The videos left to render, those finished by a previous run are not included
+     */
+    public List<PreparedVideo> getVideos() {
+        return videos;
+    }
+    
+    public JobCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+    
+    @Override
+    public void close() {
+        workspace.close();
+        checkpoint.close();
+    }
+}
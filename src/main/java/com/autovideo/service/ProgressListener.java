@@ -28,5 +28,12 @@ public interface ProgressListener {
      * @param error the exception that happened
      */
     void onError(Throwable error);
+    
+    /**
+     * Called once all the videos of an article are encoded
+     * @param speed seconds of video encoded per second of encoding (x realtime)
+     */
+    default void onEncodeSpeed(double speed) {
+    }
 }
 
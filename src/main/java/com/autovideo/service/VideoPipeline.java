@@ -0,0 +1,155 @@
+package com.autovideo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.autovideo.utils.CancellationToken;
+
+/**
+ * Runs many requests through WikipediaVideoService as a two stage pipeline,
+ * so the network bound work of the next articles (Wikipedia, Wikidata, Pixabay, Polly)
+ * overlaps with the ffmpeg encoding of the current ones.
+ *
+ * Stages are connected by bounded hand-offs, which gives backpressure all the way back
+ * to the caller: when the renderers fall behind, prepared articles fill the render queue,
+ * prepare workers block trying to add more, and submit() blocks until one of them is free.
+ * This way throughput follows the slowest stage and disk usage stays bounded.
+ */
+public class VideoPipeline implements AutoCloseable {
+
+    private static class PreparedJob {
+        private final PreparedArticle article;
+        private final ProgressListener listener;
+        private final CancellationToken token;
+        private final CompletableFuture<Void> result;
+
+        PreparedJob(PreparedArticle article, ProgressListener listener, CancellationToken token, CompletableFuture<Void> result) {
+            this.article = article;
+            this.listener = listener;
+            this.token = token;
+            this.result = result;
+        }
+    }
+
+    // Tells a render worker to stop
+    private static final PreparedJob POISON = new PreparedJob(null, null, null, null);
+
+    private final WikipediaVideoService service;
+    private final ExecutorService prepareExecutor;
+    private final Semaphore prepareSlots;
+    private final BlockingQueue<PreparedJob> renderQueue;
+    private final List<Thread> renderWorkers = new ArrayList<>();
+
+    /**
+     * @param service does the actual work
+     * @param prepareWorkers articles downloaded/synthesized at the same time
+     * @param renderWorkers articles encoded at the same time
+     * @param queueCapacity prepared articles allowed to wait for a render worker
+     */
+    public VideoPipeline(WikipediaVideoService service, int prepareWorkers, int renderWorkers, int queueCapacity) {
+        if (prepareWorkers < 1 || renderWorkers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Pipeline workers and capacity must be at least 1");
+        }
+        this.service = service;
+        this.prepareExecutor = Executors.newFixedThreadPool(prepareWorkers);
+        this.prepareSlots = new Semaphore(prepareWorkers);
+        this.renderQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < renderWorkers; i++) {
+            Thread worker = new Thread(this::renderLoop, "render-worker-" + i);
+            worker.start();
+            this.renderWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Queues a request. Blocks while every prepare worker is busy.
+     *
+     * @param request what video to make and how to make it
+     * @param listener callback for progress updates (can be null)
+     * @return completed when the video is rendered, or exceptionally if any stage failed.
+     *     Cancelling it stops the job wherever it is
+     * @throws InterruptedException if interrupted while waiting for a free prepare worker
+     */
+    public CompletableFuture<Void> submit(WikiVideoRequest request, ProgressListener listener) throws InterruptedException {
+        prepareSlots.acquire();
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CancellationToken token = new CancellationToken();
+        result.whenComplete((nothing, error) -> {
+            if (result.isCancelled()) {
+                token.cancel();
+            }
+        });
+        
+        try {
+            prepareExecutor.execute(() -> {
+                try {
+                    PreparedArticle article = service.prepare(request, listener, token);
+                    try {
+                        renderQueue.put(new PreparedJob(article, listener, token, result));
+                    } catch (InterruptedException e) {
+                        article.close();
+                        Thread.currentThread().interrupt();
+                        result.completeExceptionally(e);
+                    }
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    prepareSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prepareSlots.release();
+            throw new IllegalStateException("Pipeline is closed", e);
+        }
+
+        return result;
+    }
+
+    private void renderLoop() {
+        while (true) {
+            PreparedJob job;
+            try {
+                job = renderQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (job == POISON) return;
+
+            try {
+                service.render(job.article, job.listener, job.token);
+                job.result.complete(null);
+            } catch (Exception e) {
+                job.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Waits for every submitted request to go through both stages, then stops the workers.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        prepareExecutor.shutdown();
+        while (!prepareExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // keep waiting, downloads and speech synthesis can take a while
+        }
+
+        for (int i = 0; i < renderWorkers.size(); i++) {
+            renderQueue.put(POISON);
+        }
+        for (Thread worker : renderWorkers) {
+            worker.join();
+        }
+    }
+}
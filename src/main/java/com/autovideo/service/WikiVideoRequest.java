@@ -3,6 +3,8 @@ package com.autovideo.service;
 import com.amazonaws.services.polly.model.Engine;
 import com.autovideo.img.ImageCategory;
 import com.autovideo.utils.Language;
+import com.autovideo.video.RenderMode;
+import com.autovideo.video.RenderProfile;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,6 +20,10 @@ public class WikiVideoRequest {
     private final ImageCategory imageCategory;
     private final Path outputDirectory;
     private final boolean withAudio;
+    private final int sectionConcurrency;
+    private final RenderMode renderMode;
+    private final RenderProfile renderProfile;
+    private final boolean resume;
     
     private WikiVideoRequest(Builder builder) {
         this.articleTitle = builder.articleTitle;
@@ -26,6 +32,10 @@ public class WikiVideoRequest {
         this.imageCategory = builder.imageCategory;
         this.outputDirectory = builder.outputDirectory;
         this.withAudio = builder.withAudio;
+        this.sectionConcurrency = builder.sectionConcurrency;
+        this.renderMode = builder.renderMode;
+        this.renderProfile = builder.renderProfile;
+        this.resume = builder.resume;
     }
     
     public String getArticleTitle() {
@@ -52,6 +62,34 @@ public class WikiVideoRequest {
         return withAudio;
     }
     
+    /**
+     * How many sections of a video get rendered at the same time.
+     */
+    public int getSectionConcurrency() {
+        return sectionConcurrency;
+    }
+    
+    /**
+     * Whether sections are encoded separately and joined, or all in one ffmpeg pass.
+     */
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+    
+    /**
+     * DRAFT for a quick low resolution preview, FINAL for the real thing.
+     */
+    public RenderProfile getRenderProfile() {
+        return renderProfile;
+    }
+    
+    /**
+     * Whether to continue from the checkpoint left by a failed run of the same request.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+    
     public static class Builder {
         private String articleTitle;
         private Engine voiceEngine = Engine.Standard;
@@ -59,6 +97,11 @@ public class WikiVideoRequest {
         private ImageCategory imageCategory = ImageCategory.BUILDINGS;
         private Path outputDirectory = Paths.get("output/final/");
         private boolean withAudio = true;
+        // ffmpeg is multi-threaded already, so half the cores is usually enough to keep the box busy
+        private int sectionConcurrency = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private RenderMode renderMode = RenderMode.PER_SECTION;
+        private RenderProfile renderProfile = RenderProfile.FINAL;
+        private boolean resume = true;
         
         public Builder(String articleTitle) {
             this.articleTitle = articleTitle;
@@ -89,10 +132,39 @@ public class WikiVideoRequest {
             return this;
         }
         
+        public Builder sectionConcurrency(int sectionConcurrency) {
+            this.sectionConcurrency = sectionConcurrency;
+            return this;
+        }
+        
+        public Builder renderMode(RenderMode renderMode) {
+            this.renderMode = renderMode;
+            return this;
+        }
+        
+        public Builder renderProfile(RenderProfile renderProfile) {
+            this.renderProfile = renderProfile;
+            return this;
+        }
+        
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+        
         public WikiVideoRequest build() {
             if (articleTitle == null || articleTitle.trim().isEmpty()) {
                 throw new IllegalArgumentException("Article title can't be empty");
             }
+            if (sectionConcurrency < 1) {
+                throw new IllegalArgumentException("Section concurrency must be at least 1");
+            }
+            if (renderMode == null) {
+                throw new IllegalArgumentException("Render mode can't be null");
+            }
+            if (renderProfile == null) {
+                throw new IllegalArgumentException("Render profile can't be null");
+            }
             return new WikiVideoRequest(this);
         }
     }
@@ -3,22 +3,34 @@ package com.autovideo.service;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import org.apache.http.client.fluent.Request;
-
+import com.autovideo.cache.SegmentCache;
+import com.autovideo.cache.TtsCache;
 import com.autovideo.img.ImageVideoSelector;
 import com.autovideo.img.ImgUtils;
 import com.autovideo.img.VideoImage;
-import com.autovideo.utils.ProcessRunner;
+import com.autovideo.utils.CancellationToken;
 import com.autovideo.utils.Utils;
+import com.autovideo.utils.Workspace;
+import com.autovideo.video.EncodeProgressListener;
+import com.autovideo.video.RenderPlan;
 import com.autovideo.video.SectionOverlay;
 import com.autovideo.video.VideoRenderer;
 import com.autovideo.wikidata.datatypes.WikidataItem;
 import com.autovideo.wikidata.downloaders.WikidataItemDownloader;
+import com.autovideo.wikidata.downloaders.WikidataLabelResolver;
 import com.autovideo.wiki.WikiSection;
 import com.autovideo.wiki.WikiSectionAggregator;
 import com.autovideo.wiki.WikiSectionSplitter;
@@ -34,13 +46,26 @@ import com.autovideo.utils.Language;
  */
 public class WikipediaVideoService {
     
+    /**
+     * How often the ETA of an encode is reported as a message (the progress bar moves continuously)
+     */
+    private static final Duration ETA_MESSAGE_INTERVAL = Duration.ofSeconds(15);
+    
+    /**
+     * The only parts of the Wikidata item a video uses: flag, coordinates and the key facts
+     */
+    private static final WikidataItemDownloader.Projection WIKIDATA_PROJECTION = new WikidataItemDownloader.Projection(
+        new HashSet<>(Arrays.asList("P41", "P625", "P571", "P112", "P2044")),
+        EnumSet.of(Language.EN)
+    );
+    
     private final WikidataItemDownloader wikidataDownloader;
     private final WikiSectionSplitter sectionSplitter;
     private final WikiSectionAggregator sectionAggregator;
     private final WikiVideoAggregator videoAggregator;
     
     public WikipediaVideoService() {
-        this.wikidataDownloader = new WikidataItemDownloader();
+        this.wikidataDownloader = new WikidataItemDownloader(1, WIKIDATA_PROJECTION);
         this.sectionSplitter = new WikiSectionSplitter();
         this.sectionAggregator = new WikiSectionAggregator();
         this.videoAggregator = new WikiVideoAggregator();
@@ -49,46 +74,110 @@ public class WikipediaVideoService {
     /**
      * Generate a Wikipedia video based on the request.
      * This does all the heavy lifting - downloads content, generates audio, renders video.
+     * Same as calling prepare() and then render().
      * 
      * @param request what video to make and how to make it
      * @param listener callback for progress updates (can be null if you don't care)
      * @throws Exception if anything goes wrong during generation
      */
     public void generateVideo(WikiVideoRequest request, ProgressListener listener) throws Exception {
-        try {
+        generateVideo(request, listener, new CancellationToken());
+    }
+    
+    /**
+     * Same as generateVideo(request, listener), stopped as soon as the token is cancelled:
+     * in-flight downloads are aborted, ffmpeg is killed and the job workspace is removed.
+     * 
+     * @param request what video to make and how to make it
+     * @param listener callback for progress updates (can be null if you don't care)
+     * @param token cancelled from another thread to stop the job
+     * @throws CancellationException if the token was cancelled
+     * @throws Exception if anything goes wrong during generation
+     */
+    public void generateVideo(WikiVideoRequest request, ProgressListener listener, CancellationToken token) throws Exception {
+        render(prepare(request, listener, token), listener, token);
+    }
+    
+    /**
+     * Runs all the network bound stages for the request: Wikipedia and Wikidata downloads,
+     * section split, image selection, summarization, speech synthesis and asset downloads.
+     * The returned article only needs render(), which is pure CPU work, so the two halves
+     * can be pipelined across articles (see VideoPipeline).
+     * 
+     * @param request what video to make and how to make it
+     * @param listener callback for progress updates (can be null if you don't care)
+     * @return the prepared article, which owns the job workspace until render() closes it
+     * @throws Exception if anything goes wrong during preparation
+     */
+    public PreparedArticle prepare(WikiVideoRequest request, ProgressListener listener) throws Exception {
+        return prepare(request, listener, new CancellationToken());
+    }
+    
+    /**
+     * Same as prepare(request, listener), stopped as soon as the token is cancelled
+     */
+    public PreparedArticle prepare(WikiVideoRequest request, ProgressListener listener, CancellationToken token) throws Exception {
+        // Every job gets its own scratch directory, removed when the job ends,
+        // so several requests can be generated at the same time
+        Workspace workspace = Workspace.create(request.getArticleTitle());
+        JobCheckpoint checkpoint = null;
+        // Bound to the thread so downloads, Polly and external processes can be interrupted
+        try (CancellationToken.Scope scope = token.bind()) {
+            token.throwIfCancelled();
             notifyStage(listener, "Initializing");
             notifyProgress(listener, 0.0);
             
             // Make sure output dirs exist
-            Files.createDirectories(Paths.get("tmp"));
             Files.createDirectories(request.getOutputDirectory());
             
+            // Every completed stage is saved, a failed run of the same request continues from there
+            checkpoint = JobCheckpoint.open(request);
+            if (!request.isResume()) {
+                checkpoint.clear();
+            }
+            
             // Step 1: Download Wikipedia article
+            token.throwIfCancelled();
             notifyStage(listener, "Downloading Wikipedia article: " + request.getArticleTitle());
             notifyProgress(listener, 0.1);
             
-            WikipediaItemDownloader wikipediaDownloader = 
-                    new WikipediaItemDownloader.Builder(request.getLanguage())
-                        .setGetHtml(true)
-                        .setAcceptIds(false)
-                        .build();
-            
-            WikipediaItem wikipediaPage = wikipediaDownloader.request(request.getArticleTitle());
-            
-            if (wikipediaPage == null) {
-                throw new IOException("Could not download Wikipedia page: " + request.getArticleTitle());
+            WikipediaItem wikipediaPage = checkpoint.loadArticle();
+            if (wikipediaPage != null) {
+                notifyMessage(listener, "Resuming: article loaded from checkpoint");
+            } else {
+                WikipediaItemDownloader wikipediaDownloader = 
+                        new WikipediaItemDownloader.Builder(request.getLanguage())
+                            .setGetHtml(true)
+                            .setAcceptIds(false)
+                            .setProps(WikipediaItemDownloader.Prop.EXTRACT, WikipediaItemDownloader.Prop.WIKIDATA_ID)
+                            .build();
+                
+                wikipediaPage = wikipediaDownloader.request(request.getArticleTitle());
+                
+                if (wikipediaPage == null) {
+                    throw new IOException("Could not download Wikipedia page: " + request.getArticleTitle());
+                }
+                
+                checkpoint.saveArticle(wikipediaPage);
+                notifyMessage(listener, "Successfully downloaded article: " + wikipediaPage.getTitle());
             }
-            
-            notifyMessage(listener, "Successfully downloaded article: " + wikipediaPage.getTitle());
             notifyProgress(listener, 0.2);
             
             // Step 2: Get Wikidata info (flag, coordinates, key facts)
+            token.throwIfCancelled();
             notifyStage(listener, "Fetching Wikidata information");
             String flagImage = null;
             float latitude = 0, longitude = 0;
             SectionOverlay sectionOverlay = null;
             
-            if (wikipediaPage.getWikidataId() != null) {
+            JobCheckpoint.WikidataFacts facts = checkpoint.loadWikidataFacts();
+            if (facts != null) {
+                notifyMessage(listener, "Resuming: Wikidata information loaded from checkpoint");
+                flagImage = facts.getFlagImage();
+                latitude = facts.getLatitude();
+                longitude = facts.getLongitude();
+                sectionOverlay = facts.getOverlay();
+            } else if (wikipediaPage.getWikidataId() != null) {
                 List<WikidataItem> wikidataItems = wikidataDownloader.download(
                     Collections.singleton(wikipediaPage.getWikidataId())
                 );
@@ -115,36 +204,49 @@ public class WikipediaVideoService {
                     sectionOverlay = createOverlayFromKeyFacts(item, wikipediaPage);
                 }
             }
+            if (facts == null) {
+                checkpoint.saveWikidataFacts(new JobCheckpoint.WikidataFacts(flagImage, latitude, longitude, sectionOverlay));
+            }
             
             notifyProgress(listener, 0.3);
             
             // Step 3: Normalize content (remove parentheses and stuff)
+            token.throwIfCancelled();
             notifyStage(listener, "Processing article content");
             normalizeContent(wikipediaPage);
             
-            // Step 4: Split into sections
-            List<WikiSection> sections = sectionSplitter.split(
-                wikipediaPage.getContent(), 
-                request.getArticleTitle()
-            );
-            notifyMessage(listener, "Split article into " + sections.size() + " sections");
-            notifyProgress(listener, 0.4);
-            
-            // Step 5: Get images and videos for each section
-            notifyStage(listener, "Retrieving images from Wikipedia and Pixabay");
-            new ImageVideoSelector(request.getImageCategory()).retrieve(
-                request.getArticleTitle(), 
-                sections, 
-                9, 
-                wikipediaPage
-            );
-            notifyProgress(listener, 0.5);
-            
-            // Step 6: Create video objects
-            notifyStage(listener, "Organizing content into videos");
-            List<WikiVideo> videos = sectionAggregator.createVideos(sections, wikipediaPage);
-            videos = videoAggregator.aggregateVideos(videos);
-            notifyMessage(listener, "Created " + videos.size() + " video(s)");
+            // Sections and their images are saved together, once the videos are organized
+            List<WikiVideo> videos = checkpoint.loadVideos(wikipediaPage);
+            if (videos != null) {
+                notifyMessage(listener, "Resuming: " + videos.size() + " video(s) with their images loaded from checkpoint");
+            } else {
+                // Step 4: Split into sections
+                List<WikiSection> sections = sectionSplitter.split(
+                    wikipediaPage.getContent(), 
+                    request.getArticleTitle()
+                );
+                notifyMessage(listener, "Split article into " + sections.size() + " sections");
+                notifyProgress(listener, 0.4);
+                
+                // Step 5: Get images and videos for each section
+                token.throwIfCancelled();
+                notifyStage(listener, "Retrieving images from Wikipedia and Pixabay");
+                new ImageVideoSelector(request.getImageCategory()).retrieve(
+                    request.getArticleTitle(), 
+                    sections, 
+                    9, 
+                    wikipediaPage
+                );
+                notifyProgress(listener, 0.5);
+                
+                // Step 6: Create video objects
+                token.throwIfCancelled();
+                notifyStage(listener, "Organizing content into videos");
+                videos = sectionAggregator.createVideos(sections, wikipediaPage);
+                videos = videoAggregator.aggregateVideos(videos);
+                checkpoint.saveVideos(videos);
+                notifyMessage(listener, "Created " + videos.size() + " video(s)");
+            }
             notifyProgress(listener, 0.6);
             
             // Step 7: Generate HTML preview
@@ -172,9 +274,6 @@ public class WikipediaVideoService {
             htmlOut.println("</body></html>");
             htmlOut.close();
             
-            // Clean up temp files
-            ProcessRunner.run("sh", "output/clean.sh");
-            
             // Step 8: Add overlay and flag to intro section
             WikiSection introSection = videos.get(0).getSections().stream()
                 .filter(s -> s.getTitle().equals("Intro"))
@@ -187,38 +286,41 @@ public class WikipediaVideoService {
                 }
                 
                 if (flagImage != null) {
-                    byte[] bytes = Request.Get(Utils.getUrlForWikipediaImage(flagImage))
-                        .execute()
-                        .returnContent()
-                        .asBytes();
                     String[] parts = flagImage.split("\\.");
                     String ext = parts[parts.length - 1];
                     
-                    Files.write(Paths.get("tmp/overlay." + ext), bytes);
+                    ImgUtils.download(Utils.getUrlForWikipediaImage(flagImage), workspace.path("overlay." + ext));
                     
                     if (ext.equals("svg")) {
                         notifyMessage(listener, "Converting flag SVG to JPG");
-                        ImgUtils.convert("tmp/overlay." + ext, "tmp/overlay.jpg");
-                        ImgUtils.createCaptionedImage("tmp/overlay.jpg", 
+                        ImgUtils.convert(workspace.path("overlay." + ext), workspace.path("overlay.jpg"));
+                        ImgUtils.createCaptionedImage(workspace.path("overlay.jpg"), 
                             "Flag of " + request.getArticleTitle(), true);
                         ext = "jpg";
                     }
-                    introSection.setOverlay("tmp/overlay." + ext);
+                    introSection.setOverlay(workspace.path("overlay." + ext));
                 }
             }
             
-            notifyProgress(listener, 0.7);
+            notifyProgress(listener, 0.65);
             
-            // Step 9: Render each video
+            // Step 9: Synthesize speech and download assets for each video
+            List<PreparedArticle.PreparedVideo> preparedVideos = new ArrayList<>();
             for (int i = 0; i < videos.size(); i++) {
                 WikiVideo video = videos.get(i);
                 
-                notifyStage(listener, "Rendering video " + (i + 1) + "/" + videos.size() + 
+                token.throwIfCancelled();
+                notifyStage(listener, "Preparing video " + (i + 1) + "/" + videos.size() + 
                     ": " + video.getTitle());
                 
                 String outputFileName = video.getPageTitle() + "_" + i + "_-_" + 
                     video.getTitle().replace(" ", "_");
                 
+                if (checkpoint.isVideoDone(outputFileName)) {
+                    notifyMessage(listener, "Skipping video " + video.getTitle() + " (already rendered by a previous run)");
+                    continue;
+                }
+                
                 VideoImage image = video.sampleRandomImage();
                 if (image == null) {
                     notifyMessage(listener, "Skipping video " + video.getTitle() + 
@@ -232,46 +334,178 @@ public class WikipediaVideoService {
                         (s.getVideos().size() != 0 ? " (has video clips)" : ""));
                 });
                 
-                // This is where the actual video rendering happens (audio + video)
+                // Speech, images and clips are fetched here, encoding happens in render()
                 VideoRenderer renderer = new VideoRenderer(
                     request.isWithAudio(), 
                     request.getVoiceEngine(), 
-                    request.getLanguage()
+                    request.getLanguage(),
+                    request.getSectionConcurrency(),
+                    request.getRenderMode(),
+                    request.getRenderProfile()
                 );
                 
+                Workspace videoWorkspace = workspace.child("video-" + i);
+                RenderPlan plan = renderer.prepare(video, videoWorkspace);
+                
+                // Thumbnail goes to the output directory only once the video is rendered.
+                // The image was already fetched for its section, so this comes from the cache
+                Path thumbnail = videoWorkspace.resolve("thumbnail.jpg");
+                ImgUtils.download(image.getLargeImageURL(), thumbnail.toString());
+                
+                preparedVideos.add(new PreparedArticle.PreparedVideo(renderer, plan, outputFileName, thumbnail));
+                
+                double progressFraction = 0.65 + (0.15 * (i + 1) / videos.size());
+                notifyProgress(listener, progressFraction);
+            }
+            
+            return new PreparedArticle(request, workspace, preparedVideos, checkpoint);
+        } catch (Exception e) {
+            workspace.close();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            throw failure(e, token, listener);
+        }
+    }
+    
+    /**
+     * Encodes the videos of an article returned by prepare() and saves them,
+     * with their thumbnails, to the output directory. Always closes the article.
+     * 
+     * @param article the result of prepare()
+     * @param listener callback for progress updates (can be null if you don't care)
+     * @throws Exception if anything goes wrong during encoding
+     */
+    public void render(PreparedArticle article, ProgressListener listener) throws Exception {
+        render(article, listener, new CancellationToken());
+    }
+    
+    /**
+     * Same as render(article, listener), stopped as soon as the token is cancelled
+     */
+    public void render(PreparedArticle article, ProgressListener listener, CancellationToken token) throws Exception {
+        try (article; CancellationToken.Scope scope = token.bind()) {
+            WikiVideoRequest request = article.getRequest();
+            List<PreparedArticle.PreparedVideo> videos = article.getVideos();
+            
+            // Progress is weighted by the expected length of each video, not by their count
+            double totalDuration = videos.stream().mapToDouble(v -> v.getPlan().getDuration()).sum();
+            double renderedDuration = 0;
+            long encodeNanos = 0;
+            
+            for (int i = 0; i < videos.size(); i++) {
+                PreparedArticle.PreparedVideo prepared = videos.get(i);
+                
+                token.throwIfCancelled();
+                notifyStage(listener, "Rendering video " + (i + 1) + "/" + videos.size() + 
+                    ": " + prepared.getPlan().getVideo().getTitle());
+                
                 String outputPath = request.getOutputDirectory()
-                    .resolve(outputFileName + ".mp4")
+                    .resolve(prepared.getOutputFileName())
                     .toString();
-                    
-                renderer.render(video, outputPath.replace(".mp4", ""));
+                
+                long start = System.nanoTime();
+                Path videoFile = prepared.getRenderer().encode(prepared.getPlan(), outputPath, 
+                    encodeProgressListener(listener, renderedDuration, prepared.getPlan().getDuration(), totalDuration));
+                encodeNanos += System.nanoTime() - start;
+                renderedDuration += prepared.getPlan().getDuration();
                 
                 // Save thumbnail
-                byte[] thumbnailBytes = Request.Get(image.getLargeImageURL())
-                    .execute()
-                    .returnContent()
-                    .asBytes();
-                    
-                Files.write(
-                    request.getOutputDirectory().resolve(outputFileName + ".jpg"), 
-                    thumbnailBytes
+                Files.copy(
+                    prepared.getThumbnail(), 
+                    request.getOutputDirectory().resolve(prepared.getOutputFileName() + ".jpg"),
+                    StandardCopyOption.REPLACE_EXISTING
                 );
+                // A video is only skipped on resume if it is really there
+                if (!Files.exists(videoFile)) {
+                    throw new IOException("The video " + videoFile + " was not saved");
+                }
+                article.getCheckpoint().markVideoDone(prepared.getOutputFileName());
                 
-                ProcessRunner.run("sh", "output/clean.sh");
-                
-                double progressFraction = 0.7 + (0.3 * (i + 1) / videos.size());
-                notifyProgress(listener, progressFraction);
+                notifyProgress(listener, 0.8 + 0.2 * renderedFraction(renderedDuration, totalDuration, i + 1, videos.size()));
+            }
+            
+            if (encodeNanos > 0 && totalDuration > 0) {
+                double speed = totalDuration / (encodeNanos / 1e9);
+                notifyMessage(listener, String.format("Encoded %.0fs of video at %.2fx realtime", totalDuration, speed));
+                if (listener != null) {
+                    listener.onEncodeSpeed(speed);
+                }
             }
             
+            article.getCheckpoint().delete();
+            
             notifyStage(listener, "Complete!");
             notifyProgress(listener, 1.0);
             notifyMessage(listener, "Video generation finished successfully");
             
+            TtsCache ttsCache = TtsCache.getInstance();
+            notifyMessage(listener, "Speech cache so far: " + ttsCache.getHits() + " hits, " 
+                + ttsCache.getMisses() + " misses");
+            SegmentCache segmentCache = SegmentCache.getInstance();
+            notifyMessage(listener, "Segment cache so far: " + segmentCache.getHits() + " hits, " 
+                + segmentCache.getMisses() + " misses");
+            
         } catch (Exception e) {
-            if (listener != null) {
-                listener.onError(e);
+            throw failure(e, token, listener);
+        }
+    }
+    
+    /**
+     * Whatever a cancelled job failed with (an aborted download, a killed ffmpeg...),
+     * the caller gets a CancellationException and the listener no error.
+     */
+    private Exception failure(Exception e, CancellationToken token, ProgressListener listener) {
+        if (token.isCancelled()) {
+            notifyMessage(listener, "Cancelled");
+            if (e instanceof CancellationException) {
+                return e;
+            }
+            CancellationException cancelled = new CancellationException("Cancelled");
+            cancelled.initCause(e);
+            return cancelled;
+        }
+        notifyError(listener, e);
+        return e;
+    }
+    
+    /**
+     * Maps the encode progress of one video into the 0.8 - 1.0 render range of the article,
+     * with an ETA message every ETA_MESSAGE_INTERVAL.
+     */
+    private EncodeProgressListener encodeProgressListener(ProgressListener listener, double doneBefore, 
+            double videoDuration, double totalDuration) {
+        if (listener == null) {
+            return null;
+        }
+        
+        AtomicLong lastMessage = new AtomicLong(System.nanoTime());
+        return (fraction, speed, remaining) -> {
+            notifyProgress(listener, 0.8 + 0.2 * renderedFraction(doneBefore + fraction * videoDuration, totalDuration, 0, 1));
+            
+            long now = System.nanoTime();
+            long last = lastMessage.get();
+            if (remaining != null && now - last > ETA_MESSAGE_INTERVAL.toNanos() && lastMessage.compareAndSet(last, now)) {
+                notifyMessage(listener, String.format("Encoding: %.0f%% at %.2fx realtime, about %s left", 
+                    fraction * 100, speed, formatDuration(remaining)));
             }
-            throw e;
+        };
+    }
+    
+    /**
+     * Fraction of the article already rendered, by duration.
+     * Falls back on the video count when the durations are unknown.
+     */
+    private static double renderedFraction(double renderedDuration, double totalDuration, int renderedVideos, int videos) {
+        if (totalDuration > 0) {
+            return Math.min(1.0, renderedDuration / totalDuration);
         }
+        return 1.0 * renderedVideos / videos;
+    }
+    
+    private static String formatDuration(Duration duration) {
+        long seconds = duration.getSeconds();
+        return seconds >= 60 ? (seconds / 60) + "m " + (seconds % 60) + "s" : seconds + "s";
     }
     
     /**
@@ -310,27 +544,25 @@ public class WikipediaVideoService {
         
         // Founders (P112)
         if (item.getProperties().get("P112") != null) {
-            List<String> foundersList = item.getProperties().get("P112").stream()
-                .map(p -> {
-                    try {
-                        return new WikidataItemDownloader()
-                            .download(Collections.singleton(p.getValue()))
-                            .get(0)
-                            .getLabels()
-                            .get(Language.EN)
-                            .getText();
-                    } catch (IOException e) {
-                        return null;
-                    }
-                })
-                .filter(x -> x != null)
+            // All the founders are resolved with a single request
+            List<String> founderIds = item.getProperties().get("P112").stream()
+                .map(p -> p.getValue())
                 .collect(Collectors.toList());
+            List<String> foundersList;
+            try {
+                foundersList = new ArrayList<>(WikidataLabelResolver.getInstance().resolve(founderIds, Language.EN).values());
+            } catch (IOException e) {
+                System.err.println("Unable to resolve the founders of " + page.getTitle() + ": " + e.getMessage());
+                foundersList = Collections.emptyList();
+            }
 
-            String founders = String.join(
-                foundersList.size() == 2 ? " and " : ", ", 
-                foundersList
-            );
-            overlay.addBulletPoint("founded by " + founders);
+            if (!foundersList.isEmpty()) {
+                String founders = String.join(
+                    foundersList.size() == 2 ? " and " : ", ", 
+                    foundersList
+                );
+                overlay.addBulletPoint("founded by " + founders);
+            }
         }
         
         // Elevation (P2044)
@@ -359,5 +591,11 @@ public class WikipediaVideoService {
             listener.onMessage(message);
         }
     }
+    
+    private void notifyError(ProgressListener listener, Throwable error) {
+        if (listener != null) {
+            listener.onError(error);
+        }
+    }
 }
 
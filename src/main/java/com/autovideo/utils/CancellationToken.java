@@ -0,0 +1,127 @@
+package com.autovideo.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lets a job be stopped from another thread, e.g. the Cancel button of the GUI.
+ *
+ * Stages check the token between steps with throwIfCancelled(). Blocking work
+ * registers a callback with onCancel() that interrupts it right away (aborting an
+ * HTTP request, killing ffmpeg), so a cancelled job stops using CPU and API quota
+ * without waiting for the current step to end.
+ *
+ * Code deep in the call stack (downloads, external processes) finds the token of
+ * the job it is working for with current(): the service binds the token to its
+ * thread, and tasks handed to other threads are wrapped with wrap().
+ */
+public class CancellationToken {
+	private static final Logger logger = Logger.getLogger(CancellationToken.class.getName());
+
+	private static final ThreadLocal<CancellationToken> bound = new ThreadLocal<>();
+
+	/**
+	 * Undoes onCancel() or bind()
+	 */
+	public interface Scope extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private final List<Runnable> callbacks = new ArrayList<>();
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @return the token bound to the current thread, or a token that is never cancelled
+	 */
+	public static CancellationToken current() {
+		CancellationToken token = bound.get();
+		return token != null ? token : new CancellationToken();
+	}
+
+	/**
+	 * Cancels the job and runs every registered callback, once.
+	 * Safe to call from any thread.
+	 */
+	public void cancel() {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			toRun = new ArrayList<>(callbacks);
+			callbacks.clear();
+		}
+
+		for (Runnable callback : toRun) {
+			try {
+				callback.run();
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Cancellation callback failed", e);
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException if the job was cancelled
+	 */
+	public void throwIfCancelled() {
+		if (cancelled)
+			throw new CancellationException("Cancelled");
+	}
+
+	/**
+	 * Registers a callback run when the job is cancelled, or right away if it already is.
+	 * @return close it when the work the callback would interrupt is over
+	 */
+	public Scope onCancel(Runnable callback) {
+		synchronized (this) {
+			if (!cancelled) {
+				callbacks.add(callback);
+				return () -> {
+					synchronized (this) {
+						callbacks.remove(callback);
+					}
+				};
+			}
+		}
+
+		callback.run();
+		return () -> {};
+	}
+
+	/**
+	 * Makes this the token returned by current() on this thread, until the scope is closed
+	 */
+	public Scope bind() {
+		CancellationToken previous = bound.get();
+		bound.set(this);
+		return () -> {
+			if (previous == null)
+				bound.remove();
+			else
+				bound.set(previous);
+		};
+	}
+
+	/**
+	 * @return a task that runs with this token bound, for tasks handed to other threads
+	 */
+	public <T> Callable<T> wrap(Callable<T> task) {
+		return () -> {
+			throwIfCancelled();
+			try (Scope scope = bind()) {
+				return task.call();
+			}
+		};
+	}
+}
@@ -0,0 +1,81 @@
+package com.autovideo.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a list of tasks on a bounded pool and waits for all of them, e.g. the sections
+ * of a video or the batches of a download.
+ *
+ * Tasks are awaited in the order they finish, so the first failure is seen as soon as it
+ * happens: the pool is shut down right away, which interrupts the running tasks (killing
+ * their ffmpeg, aborting their HTTP requests) and drops the ones not started yet.
+ * An interrupt of the calling thread does the same and is propagated, never swallowed.
+ * The tasks run with the cancellation token of the calling thread.
+ */
+public class ConcurrentTasks {
+
+	/**
+	 * @return the results of the tasks, in the order of the tasks
+	 * @throws ExecutionException with the cause of the first task that failed
+	 * @throws InterruptedException if the calling thread was interrupted while waiting
+	 */
+	public static <T> List<T> run(List<Callable<T>> tasks, int threads) throws InterruptedException, ExecutionException {
+		if (tasks.isEmpty())
+			return new ArrayList<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+		CancellationToken token = CancellationToken.current();
+
+		Map<Future<T>, Integer> indexes = new HashMap<>();
+		List<T> results = new ArrayList<>(Collections.nCopies(tasks.size(), null));
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				indexes.put(completion.submit(token.wrap(tasks.get(i))), i);
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				Future<T> done = completion.take();
+				results.set(indexes.get(done), done.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Same as run(), for callers that don't throw checked exceptions.
+	 * The cause of the first failure is rethrown, wrapped in a RuntimeException if it is checked.
+	 * @throws CancellationException if the calling thread was interrupted, its interrupt flag is set again
+	 */
+	public static <T> List<T> runUnchecked(List<Callable<T>> tasks, int threads) {
+		try {
+			return run(tasks, threads);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			CancellationException cancelled = new CancellationException("Interrupted");
+			cancelled.initCause(e);
+			throw cancelled;
+		}
+	}
+}
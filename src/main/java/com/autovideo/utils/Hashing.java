@@ -1,6 +1,7 @@
 package com.autovideo.utils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -18,4 +19,22 @@ public class Hashing {
 			throw new RuntimeException(e);
 		}
 	}
+	
+	/**
+	 * Hex encoded SHA-256 of the given bytes, used as a content address
+	 * @param bytes
+	 * @return
+	 */
+	public static String sha256Hash(byte[] bytes) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return DatatypeConverter.printHexBinary(md.digest(bytes)).toLowerCase();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public static String sha256Hash(String yourString) {
+		return sha256Hash(yourString.getBytes(StandardCharsets.UTF_8));
+	}
 }
@@ -1,5 +1,8 @@
 package com.autovideo.utils;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum Language {
 	EN {
 		@Override
@@ -64,13 +67,33 @@ public enum Language {
 		}
 	};
 	
-	public static Language fromString(String lang) {
-		try {
-			return valueOf(lang.toUpperCase());
-		} catch (IllegalArgumentException e) {
-			return null;
+	private static final Map<String, Language> BY_CODE = new HashMap<>();
+	
+	static {
+		for (Language language : values()) {
+			BY_CODE.put(language.getCode(), language);
 		}
 	}
 	
+	public static Language fromString(String lang) {
+		return fromCode(lang.toLowerCase());
+	}
+	
+	/**
+	 * Lookup without exceptions, for the hundreds of unsupported languages in Wikidata entities
+	 * @param code lower case code, e.g. "en" or "simple"
+	 * @return null if the language is not supported
+	 */
+	public static Language fromCode(String code) {
+		return BY_CODE.get(code);
+	}
+	
+	/**
+	 * @return the lower case code used by Wikipedia and Wikidata, e.g. "en"
+	 */
+	public String getCode() {
+		return name().toLowerCase();
+	}
+	
 	public abstract String getName();
 }
@@ -0,0 +1,117 @@
+package com.autovideo.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes MP3 data through to another stream, adding up the duration of the
+ * MPEG audio frames as they go by. This way the length of the audio is known
+ * as soon as it has been written, without reading it back from a file.
+ *
+ * Only Layer III frames (what Polly produces) are counted, anything else is skipped.
+ */
+public class Mp3DurationCounter extends FilterOutputStream {
+
+	private static final int[] BITRATES_V1 = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+
+	private static final int[] BITRATES_V2 = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 };
+
+	private static final int[] SAMPLE_RATES_V1 = { 44100, 48000, 32000 };
+
+	/**
+	 * Last 4 bytes seen while looking for a frame header
+	 */
+	private int window = 0;
+
+	private int windowBytes = 0;
+
+	/**
+	 * Bytes of the current frame still to be passed through
+	 */
+	private long remainingFrameBytes = 0;
+
+	private double seconds = 0;
+
+	private long frames = 0;
+
+	public Mp3DurationCounter(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		consume(b & 0xFF);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (remainingFrameBytes > 0) {
+				int skipped = (int) Math.min(remainingFrameBytes, end - i);
+				remainingFrameBytes -= skipped;
+				i += skipped;
+			} else {
+				consume(b[i++] & 0xFF);
+			}
+		}
+	}
+
+	private void consume(int b) {
+		if (remainingFrameBytes > 0) {
+			remainingFrameBytes--;
+			return;
+		}
+
+		window = (window << 8) | b;
+		if (++windowBytes < 4) return;
+
+		int frameLength = parseHeader(window);
+		if (frameLength > 0) {
+			remainingFrameBytes = frameLength - 4;
+			windowBytes = 0;
+		}
+	}
+
+	/**
+	 * @return the length of the frame starting with this header, or 0 if it's not a Layer III header
+	 */
+	private int parseHeader(int header) {
+		if ((header >>> 21) != 0x7FF) return 0;
+
+		int version = (header >>> 19) & 0x3;     // 0 = MPEG 2.5, 2 = MPEG 2, 3 = MPEG 1
+		int layer = (header >>> 17) & 0x3;       // 1 = Layer III
+		int bitrateIndex = (header >>> 12) & 0xF;
+		int sampleRateIndex = (header >>> 10) & 0x3;
+		int padding = (header >>> 9) & 0x1;
+
+		if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+			return 0;
+
+		boolean mpeg1 = version == 3;
+		int bitrate = (mpeg1 ? BITRATES_V1 : BITRATES_V2)[bitrateIndex] * 1000;
+		int sampleRate = SAMPLE_RATES_V1[sampleRateIndex] / (mpeg1 ? 1 : (version == 2 ? 2 : 4));
+		int samplesPerFrame = mpeg1 ? 1152 : 576;
+
+		seconds += (double) samplesPerFrame / sampleRate;
+		frames++;
+
+		return samplesPerFrame / 8 * bitrate / sampleRate + padding;
+	}
+
+	/**
+	 * @return the duration of the frames written so far, in seconds
+	 */
+	public double getDuration() {
+		return seconds;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,81 @@
+package com.autovideo.utils;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text in chunks of bounded length, breaking only at sentence boundaries
+ * (or at spaces, for the rare sentence that alone is over the limit).
+ */
+public class SentenceChunker {
+
+	private final int maxChars;
+
+	private final Locale locale;
+
+	public SentenceChunker(int maxChars, Language language) {
+		if (maxChars < 1)
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		this.maxChars = maxChars;
+		this.locale = language == null ? Locale.ROOT : new Locale(language.name().toLowerCase());
+	}
+
+	/**
+	 * @param text
+	 * @return the chunks, in order, each at most maxChars long. Joined they give back the text,
+	 * except for the whitespace between chunks.
+	 */
+	public List<String> split(String text) {
+		List<String> chunks = new ArrayList<>();
+		if (text.length() <= maxChars) {
+			chunks.add(text);
+			return chunks;
+		}
+
+		BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+		sentences.setText(text);
+
+		StringBuilder current = new StringBuilder();
+		int start = sentences.first();
+		for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+			String sentence = text.substring(start, end);
+
+			if (current.length() + sentence.length() > maxChars) {
+				flush(current, chunks);
+			}
+
+			if (sentence.length() > maxChars) {
+				splitAtSpaces(sentence, chunks);
+			} else {
+				current.append(sentence);
+			}
+		}
+		flush(current, chunks);
+
+		return chunks;
+	}
+
+	private void splitAtSpaces(String sentence, List<String> chunks) {
+		int from = 0;
+		while (sentence.length() - from > maxChars) {
+			int cut = sentence.lastIndexOf(' ', from + maxChars);
+			if (cut <= from) cut = from + maxChars;
+			addChunk(sentence.substring(from, cut), chunks);
+			from = cut;
+		}
+		addChunk(sentence.substring(from), chunks);
+	}
+
+	private void flush(StringBuilder current, List<String> chunks) {
+		addChunk(current.toString(), chunks);
+		current.setLength(0);
+	}
+
+	private void addChunk(String chunk, List<String> chunks) {
+		chunk = chunk.trim();
+		if (!chunk.isEmpty())
+			chunks.add(chunk);
+	}
+}
@@ -0,0 +1,88 @@
+package com.autovideo.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A scratch directory owned by a single job, or by a single section of a job.
+ * Every intermediate file of a render (audio, downloaded images, clips, ffmpeg
+ * scripts, segments) lives under its root, so several generations can run at the
+ * same time from the same working directory without overwriting each other.
+ *
+ * Closing a workspace deletes its directory and everything below it.
+ */
+public class Workspace implements AutoCloseable {
+	private static final Path JOBS_DIR = Paths.get("tmp", "jobs");
+
+	private final Path root;
+
+	private Workspace(Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * Creates a new, empty workspace for a job under tmp/jobs.
+	 * @param name a human readable prefix for the directory, e.g. the article title
+	 * @return
+	 * @throws IOException
+	 */
+	public static Workspace create(String name) throws IOException {
+		Files.createDirectories(JOBS_DIR);
+		return new Workspace(Files.createTempDirectory(JOBS_DIR, sanitize(name) + "-"));
+	}
+
+	/**
+	 * Creates (or reuses) a sub-directory of this workspace, e.g. one per section.
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public Workspace child(String name) throws IOException {
+		Path childRoot = root.resolve(sanitize(name));
+		Files.createDirectories(childRoot);
+		return new Workspace(childRoot);
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public Path resolve(String fileName) {
+		return root.resolve(fileName);
+	}
+
+	/**
+	 * Returns the path of a file inside the workspace as a string, ready
+	 * to be used as an argument to external commands.
+	 * @param fileName
+	 * @return
+	 */
+	public String path(String fileName) {
+		return resolve(fileName).toString();
+	}
+
+	@Override
+	public void close() {
+		FileUtils.deleteQuietly(root.toFile());
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	/**
+	 * Keeps only characters that are safe to use unquoted in a shell command
+	 * @param name
+	 * @return
+	 */
+	private static String sanitize(String name) {
+		String sanitized = name.replaceAll("[^A-Za-z0-9_\\-]", "_");
+		if (sanitized.length() > 40) sanitized = sanitized.substring(0, 40);
+		return sanitized.isEmpty() ? "job" : sanitized;
+	}
+}
@@ -0,0 +1,16 @@
+package com.autovideo.video;
+
+import java.time.Duration;
+
+/**
+ * Receives the progress of VideoRenderer.encode(), as reported by ffmpeg.
+ * Called from the I/O threads of the ffmpeg processes, possibly several at once.
+ */
+public interface EncodeProgressListener {
+	/**
+	 * @param fraction of the video encoded so far, weighted by the expected length of each section
+	 * @param speed seconds of video encoded per second since the encode started (x realtime)
+	 * @param remaining estimated time left, null until there is enough to estimate it
+	 */
+	void onEncodeProgress(double fraction, double speed, Duration remaining);
+}
@@ -0,0 +1,97 @@
+package com.autovideo.video;
+
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses what ffmpeg writes with -progress: blocks of key=value lines,
+ * each one ended by progress=continue (or progress=end for the last one).
+ * Used as the output handler of the ffmpeg process, so the progress lines
+ * don't push the log messages out of the diagnostics.
+ */
+class FfmpegProgress implements Predicate<String> {
+	private static final Pattern KEY_VALUE = Pattern.compile("^([a-z0-9_]+)=\\s*(\\S*)$");
+
+	/**
+	 * Called at the end of every block
+	 */
+	interface Listener {
+		void onProgress(FfmpegProgress progress);
+	}
+
+	private final Listener listener;
+
+	private volatile double outTime = 0;
+
+	private volatile double speed = 0;
+
+	private volatile double fps = 0;
+
+	private volatile boolean ended = false;
+
+	FfmpegProgress(Listener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public boolean test(String line) {
+		Matcher matcher = KEY_VALUE.matcher(line.trim());
+		if (!matcher.matches())
+			return false;
+
+		String value = matcher.group(2);
+		switch (matcher.group(1)) {
+			// out_time_ms is in microseconds too, old ffmpeg versions only have that one
+			case "out_time_us":
+			case "out_time_ms":
+				outTime = Math.max(outTime, parse(value, outTime * 1e6) / 1e6);
+				break;
+			case "speed":
+				speed = parse(value.replace("x", ""), speed);
+				break;
+			case "fps":
+				fps = parse(value, fps);
+				break;
+			case "progress":
+				ended = value.equals("end");
+				if (listener != null)
+					listener.onProgress(this);
+				break;
+			default:
+				break;
+		}
+		return true;
+	}
+
+	private static double parse(String value, double fallback) {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			// N/A until the first frame is out
+			return fallback;
+		}
+	}
+
+	/**
+	 * @return seconds of output encoded so far
+	 */
+	double getOutTime() {
+		return outTime;
+	}
+
+	/**
+	 * @return the last speed reported by ffmpeg, as a multiple of realtime
+	 */
+	double getSpeed() {
+		return speed;
+	}
+
+	double getFps() {
+		return fps;
+	}
+
+	boolean isEnded() {
+		return ended;
+	}
+}
@@ -0,0 +1,62 @@
+package com.autovideo.video;
+
+/**
+ * Slow zoom towards the center of a still image (the "Ken Burns" effect).
+ *
+ * The image is read as a single frame, fitted once to a canvas a few times larger than
+ * the output and zoompan generates every frame of the clip from that one frame, scaling
+ * straight to the output size. So the cost per frame depends on the output resolution,
+ * not on a huge intermediate upscale, and the image is decoded and scaled only once.
+ * The oversampling keeps the sub-pixel motion smooth.
+ */
+public class KenBurns {
+
+	/**
+	 * Size of the zoompan canvas, relative to the output
+	 */
+	static final int OVERSAMPLE = 3;
+
+	private final double startZoom;
+
+	private final double endZoom;
+
+	/**
+	 * Zoom change per second
+	 */
+	private final double speed;
+
+	public KenBurns(double startZoom, double endZoom, double speed) {
+		this.startZoom = startZoom;
+		this.endZoom = endZoom;
+		this.speed = speed;
+	}
+
+	/**
+	 * Same ranges the renderer always used: zooms out from 1.1-1.3 to 1.05-1.15,
+	 * at 0.005-0.0175 per second (0.0002-0.0007 per frame at 25 fps)
+	 * @return
+	 */
+	public static KenBurns random() {
+		return new KenBurns(1.1 + Math.random() * 0.2, 1.05 + Math.random() * 0.1, (0.0002 + Math.random() * 0.0005) * 25);
+	}
+
+	/**
+	 * Filter chain turning a single image frame into a clip of the given duration, fitted
+	 * and padded to the profile size. The input must be one frame (no -loop).
+	 * @param profile
+	 * @param duration in seconds
+	 * @return
+	 */
+	public String getFilter(RenderProfile profile, double duration) {
+		int canvasWidth = profile.getWidth() * OVERSAMPLE;
+		int canvasHeight = profile.getHeight() * OVERSAMPLE;
+		long frames = Math.max(1, Math.round(duration * profile.getFps()));
+
+		return "scale=" + canvasWidth + ":" + canvasHeight + ":force_original_aspect_ratio=decrease,"
+			+ "pad=" + canvasWidth + ":" + canvasHeight + ":(ow-iw)/2:(oh-ih)/2,setsar=1,"
+			+ "zoompan=z='max(" + endZoom + "," + startZoom + "-on*" + (speed / profile.getFps()) + ")'"
+			+ ":x='iw/2-(iw/zoom/2)':y='ih/2-(ih/zoom/2)'"
+			+ ":d=" + frames + ":s=" + profile.getWidth() + "x" + profile.getHeight() + ":fps=" + profile.getFps()
+			+ ",setsar=1";
+	}
+}
@@ -0,0 +1,99 @@
+package com.autovideo.video;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Renders the typing animation of a SectionOverlay as an ASS subtitle file,
+ * drawn on the video by a single ass filter.
+ *
+ * The text is one karaoke event with a \ko tag per character: a character
+ * (and its share of the background box) stays hidden until its turn comes,
+ * so the text appears as if typed. The size of the filter graph and the work
+ * per frame don't depend on the length of the text.
+ */
+public class OverlayAnimation {
+
+	/**
+	 * Time taken to type the whole text, in seconds
+	 */
+	private static final double TYPING_DURATION = 3.0;
+
+	/**
+	 * When the overlay disappears, in seconds
+	 */
+	private static final double END = 10.0;
+
+	/**
+	 * The text slides in from the left edge at this speed, in pixels per second (1080p)
+	 */
+	private static final int SLIDE_SPEED = 500;
+
+	private static final int X = 170;
+
+	private static final int Y = 270;
+
+	/**
+	 * Writes the animation of the overlay to an .ass file, for the size of the profile.
+	 * @param overlay
+	 * @param profile
+	 * @param assFile
+	 * @throws IOException
+	 */
+	public static void write(SectionOverlay overlay, RenderProfile profile, Path assFile) throws IOException {
+		StringBuilder ass = new StringBuilder();
+		ass.append("[Script Info]\n");
+		ass.append("ScriptType: v4.00+\n");
+		ass.append("PlayResX: " + profile.getWidth() + "\n");
+		ass.append("PlayResY: " + profile.getHeight() + "\n");
+		ass.append("WrapStyle: 2\n");
+		ass.append("\n");
+		ass.append("[V4+ Styles]\n");
+		ass.append("Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, "
+			+ "Bold, Italic, Underline, StrikeOut, ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, "
+			+ "Alignment, MarginL, MarginR, MarginV, Encoding\n");
+		// BorderStyle 3 draws an opaque box (OutlineColour, black at 75%) as the outline, like drawtext box=1
+		ass.append("Style: Overlay,DejaVu Sans," + profile.scale(40) + ",&H00EEEEEE,&HFF000000,&H40000000,&H40000000,"
+			+ "0,0,0,0,100,100,0,0,3," + profile.scale(70) + ",0,7,0,0,0,1\n");
+		ass.append("\n");
+		ass.append("[Events]\n");
+		ass.append("Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n");
+
+		String text = getText(overlay);
+		int slideEnd = X * 1000 / SLIDE_SPEED;
+		ass.append("Dialogue: 0,0:00:00.00," + formatTime(END) + ",Overlay,,0,0,0,,");
+		ass.append("{\\move(0," + profile.scale(Y) + "," + profile.scale(X) + "," + profile.scale(Y) + ",0," + slideEnd + ")}");
+
+		// Karaoke durations are in centiseconds: spread the rounding so the total stays exact
+		double charDuration = TYPING_DURATION * 100 / text.length();
+		long previous = 0;
+		for (int i = 0; i < text.length(); i++) {
+			long current = Math.round((i + 1) * charDuration);
+			char c = text.charAt(i);
+			ass.append("{\\ko" + (current - previous) + "}");
+			ass.append(c == '\n' ? "\\N" : String.valueOf(c));
+			previous = current;
+		}
+		ass.append("\n");
+
+		Files.write(assFile, ass.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String getText(SectionOverlay overlay) {
+		StringBuilder text = new StringBuilder(overlay.getTitle());
+		for (String point : overlay.getBulletPoints()) {
+			text.append("\n\n\n").append(" • ").append(point);
+		}
+		// Braces and backslashes would be read as override tags
+		return text.toString().replace('{', '(').replace('}', ')').replace("\\", "");
+	}
+
+	private static String formatTime(double seconds) {
+		int centiseconds = (int) Math.round(seconds * 100);
+		return String.format(Locale.ROOT, "%d:%02d:%02d.%02d", centiseconds / 360000, (centiseconds / 6000) % 60,
+			(centiseconds / 100) % 60, centiseconds % 100);
+	}
+}
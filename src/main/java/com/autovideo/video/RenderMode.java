@@ -0,0 +1,17 @@
+package com.autovideo.video;
+
+/**
+ * How the sections of a video are turned into the final file
+ */
+public enum RenderMode {
+	/**
+	 * One ffmpeg process per section (run in parallel), then the segments are joined without re-encoding
+	 */
+	PER_SECTION,
+
+	/**
+	 * The filter graphs of all the sections are merged and the whole video
+	 * is encoded by a single ffmpeg process, with no concatenation step
+	 */
+	SINGLE_PASS
+}
@@ -0,0 +1,51 @@
+package com.autovideo.video;
+
+import java.util.List;
+
+import com.autovideo.utils.Workspace;
+import com.autovideo.wiki.WikiVideo;
+
+/**
+ * The result of VideoRenderer.prepare(): images and clips of every section
+ * are already in the workspace, speech is synthesized and each section has
+ * its ffmpeg script ready. What is left is only CPU work (encoding and concatenation).
+ */
+public class RenderPlan {
+	private final WikiVideo video;
+	
+	private final Workspace workspace;
+	
+	/**
+	 * One entry per section, null for the sections that were skipped
+	 */
+	private final List<SectionScript> sectionScripts;
+
+	public RenderPlan(WikiVideo video, Workspace workspace, List<SectionScript> sectionScripts) {
+		this.video = video;
+		this.workspace = workspace;
+		this.sectionScripts = sectionScripts;
+	}
+
+	public WikiVideo getVideo() {
+		return video;
+	}
+
+	public Workspace getWorkspace() {
+		return workspace;
+	}
+
+	public List<SectionScript> getSectionScripts() {
+		return sectionScripts;
+	}
+
+	/**
+	 * @return the expected length of what has to be encoded, in seconds
+	 * (sections reused from the segment cache don't count)
+	 */
+	public double getDuration() {
+		return sectionScripts.stream()
+			.filter(s -> s != null)
+			.mapToDouble(SectionScript::getDuration)
+			.sum();
+	}
+}
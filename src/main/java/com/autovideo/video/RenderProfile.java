@@ -0,0 +1,81 @@
+package com.autovideo.video;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Output quality of a render. Everything in the ffmpeg scripts that depends
+ * on the resolution or on the encoder comes from here.
+ */
+public enum RenderProfile {
+	/**
+	 * Quick preview for editors: 540p, 15 fps, no Ken Burns effect, fastest x264 preset
+	 */
+	DRAFT(960, 540, 15, false, "ultrafast", 30),
+
+	/**
+	 * What gets published: 1080p with the Ken Burns effect on the images
+	 */
+	FINAL(1920, 1080, 25, true, "medium", 23);
+
+	private final int width;
+
+	private final int height;
+
+	private final int fps;
+
+	private final boolean kenBurns;
+
+	private final String preset;
+
+	private final int crf;
+
+	private RenderProfile(int width, int height, int fps, boolean kenBurns, String preset, int crf) {
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+		this.kenBurns = kenBurns;
+		this.preset = preset;
+		this.crf = crf;
+	}
+
+	/**
+	 * Fit and pad filter
+	 */
+	public String getScaleFilter() {
+		return "scale=" + width + ":" + height + ":force_original_aspect_ratio=decrease,pad="
+			+ width + ":" + height + ":(ow-iw)/2:(oh-ih)/2";
+	}
+
+	/**
+	 * Scales a size in pixels, given for the 1080p layout, to this profile
+	 * @param pixels
+	 * @return
+	 */
+	public int scale(int pixels) {
+		return pixels * height / 1080;
+	}
+
+	/**
+	 * x264 options for the output file
+	 */
+	public List<String> getEncoderArgs() {
+		return Arrays.asList("-c:v", "libx264", "-preset", preset, "-crf", "" + crf, "-r", "" + fps);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFps() {
+		return fps;
+	}
+
+	public boolean isKenBurns() {
+		return kenBurns;
+	}
+}
@@ -0,0 +1,148 @@
+package com.autovideo.video;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prepared section: its ffmpeg inputs and filter graph, and its narration.
+ * The audio is kept in memory and piped to ffmpeg through stdin when the
+ * section is encoded, instead of being written to a file and read back.
+ */
+public class SectionScript {
+	private static final Pattern INPUT_REFERENCE = Pattern.compile("\\[(\\d+):([va])\\]");
+
+	/**
+	 * ffmpeg arguments of each input, e.g. [-loop, 1, -t, 7.5, -i, 1.jpg], numbered from 0 in the filter graph
+	 */
+	private final List<List<String>> inputs;
+
+	private final String filterGraph;
+
+	/**
+	 * Label of the video stream produced by the filter graph
+	 */
+	private final String output;
+
+	/**
+	 * MP3 data of the narration, null if the video has no audio
+	 */
+	private final byte[] audio;
+
+	private final double audioDuration;
+
+	/**
+	 * Expected length of the encoded section in seconds, the longest of the narration and the pictures
+	 */
+	private final double duration;
+
+	/**
+	 * Key of the section in the SegmentCache, null if the segment must not be cached
+	 */
+	private final String fingerprint;
+
+	/**
+	 * True if the segment was taken from the SegmentCache and there is nothing to encode
+	 */
+	private final boolean cached;
+
+	/**
+	 * False if an image, the clip or the overlay of the section could not be retrieved
+	 * and the section is rendered without it
+	 */
+	private final boolean complete;
+
+	public SectionScript(List<List<String>> inputs, String filterGraph, String output, byte[] audio, double audioDuration, double duration,
+			String fingerprint, boolean complete) {
+		this.inputs = inputs;
+		this.filterGraph = filterGraph;
+		this.output = output;
+		this.audio = audio;
+		this.audioDuration = audioDuration;
+		this.duration = duration;
+		this.fingerprint = fingerprint;
+		this.cached = false;
+		this.complete = complete;
+	}
+
+	/**
+	 * A section whose segment was already copied from the SegmentCache
+	 * @param fingerprint
+	 */
+	public SectionScript(String fingerprint) {
+		this.inputs = Collections.emptyList();
+		this.filterGraph = null;
+		this.output = null;
+		this.audio = null;
+		this.audioDuration = -1;
+		this.duration = 0;
+		this.fingerprint = fingerprint;
+		this.cached = true;
+		this.complete = true;
+	}
+
+	/**
+	 * Returns the filter graph with every input reference shifted by offset,
+	 * for when the inputs of this section are not the first ones of the command.
+	 * @param offset
+	 * @return
+	 */
+	public String getFilterGraph(int offset) {
+		Matcher matcher = INPUT_REFERENCE.matcher(filterGraph);
+		StringBuffer shifted = new StringBuffer();
+		while (matcher.find()) {
+			int input = Integer.parseInt(matcher.group(1)) + offset;
+			matcher.appendReplacement(shifted, "[" + input + ":" + matcher.group(2) + "]");
+		}
+		matcher.appendTail(shifted);
+		return shifted.toString();
+	}
+
+	public List<List<String>> getInputs() {
+		return inputs;
+	}
+
+	public String getFilterGraph() {
+		return filterGraph;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public byte[] getAudio() {
+		return audio;
+	}
+
+	/**
+	 * @return the length of the narration in seconds, -1 if there is none
+	 */
+	public double getAudioDuration() {
+		return audioDuration;
+	}
+
+	/**
+	 * @return how many seconds of video have to be encoded, 0 for a cached segment
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return false if the section is missing something it was planned with, its segment
+	 * must not be stored in the SegmentCache under the fingerprint of the full section.
+	 * The narration is all or nothing: a section whose speech fails is not rendered.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+}
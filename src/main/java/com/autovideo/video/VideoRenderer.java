@@ -1,28 +1,41 @@
 package com.autovideo.video;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import org.apache.http.client.fluent.Request;
-import org.jaudiotagger.audio.AudioFile;
-import org.jaudiotagger.audio.AudioFileIO;
+import org.apache.commons.io.FileUtils;
 
 import com.amazonaws.services.polly.model.Engine;
+import com.autovideo.AutovideoConf;
 import com.autovideo.Polly;
+import com.autovideo.cache.AssetCache;
+import com.autovideo.cache.SegmentCache;
+import com.autovideo.cache.TtsCache;
 import com.autovideo.img.ImgUtils;
 import com.autovideo.img.PixabayVideo;
 import com.autovideo.img.VideoImage;
+import com.autovideo.process.ExternalProcess;
+import com.autovideo.process.ProcessResult;
+import com.autovideo.utils.CancellationToken;
+import com.autovideo.utils.ConcurrentTasks;
+import com.autovideo.utils.Hashing;
 import com.autovideo.utils.Language;
-import com.autovideo.utils.ProcessRunner;
+import com.autovideo.utils.Mp3DurationCounter;
+import com.autovideo.utils.Workspace;
 import com.autovideo.wiki.WikiSection;
 import com.autovideo.wiki.WikiVideo;
 
@@ -31,15 +44,47 @@ public class VideoRenderer {
 	
 	private boolean withAudio = false;
 	
+	/**
+	 * Maximum number of sections rendered at the same time
+	 * (each one with its own TTS call, downloads and ffmpeg process)
+	 */
+	private int sectionConcurrency = 1;
+	
+	private RenderMode renderMode = RenderMode.PER_SECTION;
+	
+	private RenderProfile profile = RenderProfile.FINAL;
+	
+	/**
+	 * ffmpeg reads the narration from stdin
+	 */
+	private static final List<String> NARRATION_INPUT = Arrays.asList("-f", "mp3", "-i", "pipe:0");
+	
+	/**
+	 * Part of the segment fingerprint: bump it whenever the filter graphs or the
+	 * encoding change, so segments rendered by older versions are not reused
+	 */
+	private static final int SEGMENT_VERSION = 1;
+	
+	/**
+	 * Kill ffmpeg if it takes longer than this, it's stuck
+	 */
+	private final Duration encodeTimeout = Duration.ofMinutes(AutovideoConf.getInstance().getEncodeTimeoutMinutes());
+	
 	public VideoRenderer(boolean withAudio, Engine engine, Language language) {
+		this(withAudio, engine, language, 1);
+	}
+	
+	public VideoRenderer(boolean withAudio, Engine engine, Language language, int sectionConcurrency) {
+		this(withAudio, engine, language, sectionConcurrency, RenderMode.PER_SECTION, RenderProfile.FINAL);
+	}
+	
+	public VideoRenderer(boolean withAudio, Engine engine, Language language, int sectionConcurrency, RenderMode renderMode, RenderProfile profile) {
 		this.withAudio = withAudio;
+		this.sectionConcurrency = Math.max(1, sectionConcurrency);
+		this.renderMode = renderMode;
+		this.profile = profile;
 		polly = new Polly(engine, language);
 	}
-
-	/**
-	 * Fit and pad filter
-	 */
-	private static final String SCALE_FILTER = "scale=1920:1080:force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2";
 	
 //	/**
 //	 * Crop and fit filter
@@ -47,51 +92,296 @@ public class VideoRenderer {
 //	private static final String SCALE_FILTER = "scale=w=1280:h=720:force_original_aspect_ratio=2,crop=1280:720";
 	
 	
-	private int getMp3Duration(String file) {
-		int duration = 0;
-
+	/**
+	 * Renders all the sections of the video and concatenates them into
+	 * outputFileName.mp4. Every intermediate file is written inside the
+	 * given workspace, one sub-directory per section.
+	 * 
+	 * Same as calling prepare() and then encode().
+	 * @param video
+	 * @param outputFileName path of the final video, without extension
+	 * @param workspace scratch directory owned by the caller
+	 */
+	public void render(WikiVideo video, String outputFileName, Workspace workspace) {
+		encode(prepare(video, workspace), outputFileName);
+	}
+	
+	/**
+	 * Runs the network bound part of the rendering: speech synthesis, image and
+	 * clip downloads, captions and the ffmpeg script of every section.
+	 * Sections are prepared concurrently, at most sectionConcurrency at a time.
+	 * 
+	 * When rendering per section, a section whose segment is in the SegmentCache
+	 * is not prepared at all: the segment is copied to the workspace instead.
+	 * @param video
+	 * @param workspace scratch directory owned by the caller, must stay alive until encode()
+	 * @return
+	 */
+	public RenderPlan prepare(WikiVideo video, Workspace workspace) {
+		List<Callable<SectionScript>> tasks = new ArrayList<>();
+		for (int i = 0; i < video.getSections().size(); i++) {
+			final int sectionIndex = i;
+			// A single pass render has no segments to reuse
+			Path segmentFile = renderMode == RenderMode.PER_SECTION ? getSegmentFile(workspace, sectionIndex) : null;
+			tasks.add(() -> prepareSection(video.getSections().get(sectionIndex), sectionIndex, video,
+					workspace.child("section-" + sectionIndex), segmentFile));
+		}
+		
+		return new RenderPlan(video, workspace, runConcurrently(tasks));
+	}
+	
+	/**
+	 * Runs the CPU bound part of the rendering, according to the render mode.
+	 * Returns only once the video is encoded: on failure the partial output is deleted and the error is thrown.
+	 * @param plan the result of prepare()
+	 * @param outputFileName path of the final video, without extension
+	 * @return the video file
+	 * @throws CancellationException if the thread was interrupted, ffmpeg is killed
+	 */
+	public Path encode(RenderPlan plan, String outputFileName) {
+		return encode(plan, outputFileName, null);
+	}
+	
+	/**
+	 * Same as encode(plan, outputFileName), reporting the progress of ffmpeg to the listener.
+	 * @param plan the result of prepare()
+	 * @param outputFileName path of the final video, without extension
+	 * @param listener can be null
+	 * @return the video file
+	 */
+	public Path encode(RenderPlan plan, String outputFileName, EncodeProgressListener listener) {
+		Path outputFile = Paths.get(outputFileName + ".mp4");
+		outputFile = outputFile.resolveSibling(outputFile.getFileName().toString().replace(" ", "_"));
+		
+		long start = System.nanoTime();
 		try {
-			AudioFile audioFile = AudioFileIO.read(new File(file));
-			duration = audioFile.getAudioHeader().getTrackLength();
-			return duration;
-		} catch (Exception e) {
-			return -1;
+			if (renderMode == RenderMode.SINGLE_PASS)
+				encodeSinglePass(plan, outputFile, new EncodeTracker(new double[] { plan.getDuration() }, listener));
+			else
+				encodePerSection(plan, outputFile, new EncodeTracker(plan.getSectionScripts().stream()
+					.mapToDouble(s -> s == null ? 0 : s.getDuration())
+					.toArray(), listener));
+			
+			// Every section was skipped, there was nothing to encode
+			if (!Files.exists(outputFile))
+				throw new IllegalStateException("No video was encoded to " + outputFile);
+		} catch (RuntimeException e) {
+			// A killed or failed ffmpeg leaves a truncated file behind
+			FileUtils.deleteQuietly(outputFile.toFile());
+			throw e;
 		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Encoded %s in %.1fs (%s, %.2fx realtime)", outputFile, seconds, renderMode, 
+			plan.getDuration() / seconds));
+		return outputFile;
 	}
 	
-	public void render(WikiVideo video, String outputFileName) {
-		for (int i = 0; i < video.getSections().size(); i++) {
-			try {
-				createVideo(video.getSections().get(i), i, video);
-			} catch (FileNotFoundException e) {
-				throw new RuntimeException(e);
-			}
+	/**
+	 * One ffmpeg process per section (at most sectionConcurrency at a time),
+	 * then the concatenation of the segments, always in section order.
+	 */
+	private void encodePerSection(RenderPlan plan, Path outputFile, EncodeTracker tracker) {
+		Workspace workspace = plan.getWorkspace();
+		List<SectionScript> scripts = plan.getSectionScripts();
+		
+		List<Callable<Path>> tasks = new ArrayList<>();
+		for (int i = 0; i < scripts.size(); i++) {
+			final int sectionIndex = i;
+			tasks.add(() -> {
+				try (Workspace sectionWorkspace = workspace.child("section-" + sectionIndex)) {
+					if (scripts.get(sectionIndex) != null && !scripts.get(sectionIndex).isCached())
+						encodeSection(scripts.get(sectionIndex), getSegmentFile(workspace, sectionIndex), tracker.part(sectionIndex));
+				}
+				return null;
+			});
 		}
 		
+		runConcurrently(tasks);
+		
 		// Concat videos
 		try {
-			PrintWriter out2 = new PrintWriter("output/list.txt");
+			String listFile = workspace.path("list.txt");
+			PrintWriter out2 = new PrintWriter(listFile);
 			boolean found = false;
-			for (int i = 0; i <= video.getSections().size(); i++) {
-				if (Files.exists(Paths.get("output/video.final." + i + ".mp4"))) {
-					out2.println("file video.final." + i + ".mp4");
+			for (int i = 0; i <= scripts.size(); i++) {
+				Path segment = getSegmentFile(workspace, i);
+				if (Files.exists(segment)) {
+					out2.println("file " + segment.getFileName());
 					found = true;
 				}
 			}
 			out2.close();
 			
 			if (found)
-				ProcessRunner.run("sh", "concat.sh", "output/list.txt", "output/final/" + outputFileName.replace(" ", "_") + ".mp4");
+				run(new ExternalProcess.Builder("ffmpeg", "-y", "-nostats", "-f", "concat", "-safe", "0", "-i", listFile,
+					"-c", "copy", outputFile.toString()), null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (InterruptedException e) {
+			throw interrupted(e);
+		}
+	}
+	
+	/**
+	 * Merges the filter graphs of all the sections and encodes the whole video
+	 * with a single ffmpeg process. The narrations of the sections are piped as
+	 * one MP3 stream, split back per section with atrim and joined to the video
+	 * by the concat filter, so there is no concatenation step and no segment boundaries.
+	 */
+	private void encodeSinglePass(RenderPlan plan, Path outputFile, EncodeTracker tracker) {
+		Workspace workspace = plan.getWorkspace();
+		List<SectionScript> sections = plan.getSectionScripts().stream()
+			.filter(s -> s != null)
+			.collect(Collectors.toList());
+		
+		try {
+			if (sections.isEmpty()) return;
+			
+			boolean audio = sections.stream().allMatch(s -> s.getAudio() != null);
+			
+			List<List<String>> inputs = new ArrayList<>();
+			StringBuilder graph = new StringBuilder();
+			for (SectionScript section : sections) {
+				graph.append(section.getFilterGraph(inputs.size())).append(";");
+				inputs.addAll(section.getInputs());
+			}
+			
+			ByteArrayOutputStream narration = new ByteArrayOutputStream();
+			if (audio) {
+				graph.append("[" + inputs.size() + ":a]asplit=" + sections.size());
+				for (int i = 0; i < sections.size(); i++) {
+					graph.append("[na" + i + "]");
+				}
+				graph.append(";");
+				
+				double audioStart = 0;
+				for (int i = 0; i < sections.size(); i++) {
+					double audioEnd = audioStart + sections.get(i).getAudioDuration();
+					graph.append("[na" + i + "]atrim=start=" + audioStart + ":end=" + audioEnd 
+						+ ",asetpts=PTS-STARTPTS[a" + i + "];");
+					audioStart = audioEnd;
+					narration.write(sections.get(i).getAudio());
+				}
+				inputs.add(NARRATION_INPUT);
+			}
+			
+			for (int i = 0; i < sections.size(); i++) {
+				graph.append(sections.get(i).getOutput());
+				if (audio) graph.append("[a" + i + "]");
+			}
+			graph.append("concat=n=" + sections.size() + ":v=1:a=" + (audio ? 1 : 0) + "[v]" + (audio ? "[a]" : ""));
+			
+			List<String> maps = new ArrayList<>();
+			maps.add("[v]");
+			if (audio) maps.add("[a]");
+			
+			System.out.println("CREATING VIDEO FILE " + outputFile + " (" + sections.size() + " sections, single pass)");
+			run(buildCommand(inputs, graph.toString(), maps, outputFile)
+				.input(audio ? narration.toByteArray() : null), tracker.part(0));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (InterruptedException e) {
+			throw interrupted(e);
+		} finally {
+			for (int i = 0; i < plan.getSectionScripts().size(); i++) {
+				FileUtils.deleteQuietly(workspace.resolve("section-" + i).toFile());
+			}
+		}
+	}
+	
+	/**
+	 * Runs the tasks at most sectionConcurrency at a time, see ConcurrentTasks
+	 */
+	private <T> List<T> runConcurrently(List<Callable<T>> tasks) {
+		return ConcurrentTasks.runUnchecked(tasks, sectionConcurrency);
+	}
+	
+	/**
+	 * An interrupted encode must not look like a finished one: the interrupt flag
+	 * is set again and the caller gets a CancellationException
+	 */
+	private static CancellationException interrupted(InterruptedException e) {
+		Thread.currentThread().interrupt();
+		CancellationException cancelled = new CancellationException("Interrupted while encoding");
+		cancelled.initCause(e);
+		return cancelled;
+	}
+
+	/**
+	 * Escapes a file name for a filter option of a filter graph, which ffmpeg unescapes
+	 * twice: first the value is quoted for the option parser (a quote can't appear inside
+	 * quotes, so it's closed, escaped and reopened), then every character special to the
+	 * graph parser is escaped with a backslash.
+	 */
+	static String escapeFilterPath(Path file) {
+		String quoted = "'" + file.toAbsolutePath().toString().replace("'", "'\\''") + "'";
+		StringBuilder escaped = new StringBuilder();
+		for (char c : quoted.toCharArray()) {
+			if ("\\'[],;".indexOf(c) >= 0)
+				escaped.append('\\');
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	private Path getSegmentFile(Workspace workspace, int sectionIndex) {
+		return workspace.resolve("video.final." + sectionIndex + ".mp4");
+	}
+	
+	/**
+	 * Prepares and encodes a single section into segmentFile
+	 */
+	public void createVideo(WikiSection section, int sectionIndex, WikiVideo video, Workspace workspace, Path segmentFile) {
+		SectionScript script = prepareSection(section, sectionIndex, video, workspace, segmentFile);
+		if (script != null && !script.isCached())
+			encodeSection(script, segmentFile, null);
+	}
+	
+	private void encodeSection(SectionScript script, Path segmentFile, FfmpegProgress progress) {
+		System.out.println("CREATING VIDEO FILE " + segmentFile);
+		
+		// The narration comes last, from stdin
+		List<List<String>> inputs = new ArrayList<>(script.getInputs());
+		List<String> maps = new ArrayList<>();
+		maps.add(script.getOutput());
+		if (script.getAudio() != null) {
+			maps.add(inputs.size() + ":a");
+			inputs.add(NARRATION_INPUT);
+		}
+		
+		try {
+			run(buildCommand(inputs, script.getFilterGraph(), maps, segmentFile).input(script.getAudio()), progress);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		} catch (InterruptedException e) {
+			throw interrupted(e);
+		}
+		
+		if (!script.isComplete()) {
+			// The fingerprint is of the section as planned, the next render may get everything
+			System.out.println("[INFO] Not caching the segment of an incomplete section: " + segmentFile);
+		} else if (script.getFingerprint() != null) {
+			try {
+				SegmentCache.getInstance().put(script.getFingerprint(), segmentFile);
+			} catch (IOException e) {
+				System.err.println("[ERROR] Unable to cache the segment " + segmentFile + ": " + e.getMessage());
+			}
 		}
 	}
 	
-	public void createVideo(WikiSection section, int sectionIndex, WikiVideo video) throws FileNotFoundException {
+	/**
+	 * Downloads and synthesizes everything needed by a section and builds its ffmpeg filter graph.
+	 * @param segmentFile where the segment will be encoded, the cached one is copied there if
+	 * the section did not change; null to always prepare the section
+	 * @return the script, or null if the section has to be skipped
+	 */
+	private SectionScript prepareSection(WikiSection section, int sectionIndex, WikiVideo video, Workspace workspace, Path segmentFile) {
+		CancellationToken.current().throwIfCancelled();
+		
 		if (section.getContent().length() < 40) {
 			System.out.println("[INFO] Skipping too short section < 40 chars: " + section.getTitle());
-			return;
+			return null;
 		}
 		
 		/*
@@ -101,6 +391,23 @@ public class VideoRenderer {
 			section.setContent("Hello! I am the story teller... and today we will talk about " + section.getPageTitle() + ". " + section.getContent());
 		}
 		
+		/*
+		 * Reuse the segment if nothing in the section changed
+		 */
+		String fingerprint = null;
+		if (segmentFile != null) {
+			try {
+				fingerprint = fingerprint(section);
+				if (SegmentCache.getInstance().copyTo(fingerprint, segmentFile)) {
+					System.out.println("[INFO] Reusing cached segment for section: " + section.getTitle());
+					return new SectionScript(fingerprint);
+				}
+			} catch (IOException e) {
+				System.err.println("[ERROR] Segment cache unavailable for section " + section.getTitle() + ": " + e.getMessage());
+				fingerprint = null;
+			}
+		}
+		
 		/*
 		 * Download videos
 		 */
@@ -109,40 +416,50 @@ public class VideoRenderer {
 			pixabayVideo = section.getVideos().get(0);
 		}
 		
+		String clipFile = workspace.path("0.mp4");
+		
+		// False as soon as something planned for the section is left out of it
+		boolean complete = true;
+		
 		int videoDuration = 0;
 		if (pixabayVideo != null) {
 			try {
 				System.out.println("Downloading video: " + pixabayVideo.getDownloadURL());
-				byte[] asBytes = Request.Get(pixabayVideo.getDownloadURL()).execute().returnContent().asBytes();
-				Files.write(Paths.get("tmp/0.mp4"), asBytes);
+				AssetCache.getInstance().copyTo(pixabayVideo.getDownloadURL(), Paths.get(clipFile));
 				videoDuration = pixabayVideo.getDuration();
 			} catch (IOException e) {
+				System.err.println("[ERROR] Error retrieving video: " + pixabayVideo.getDownloadURL());
+				pixabayVideo = null;
+				complete = false;
 			}
 		}
 		
-		StringBuilder cmd = new StringBuilder();
-		if (section.getContent().length() == 0) return;
-		
-		cmd.append("ffmpeg -y \\\n");
+		if (section.getContent().length() == 0) return null;
 		
 		System.out.println("Section: " + section.getTitle() + " (" + section.getContent().length() + " chars)");
+		// Audio stays in memory, the duration is counted while it's being written
+		ByteArrayOutputStream audio = new ByteArrayOutputStream();
+		double audioDuration = -1;
 		if (withAudio) {
-			try {
-				polly.writeToMp3(section.getContent(), "audio.mp3");
-			} catch (IOException e1) {
-				e1.printStackTrace();
+			try (Mp3DurationCounter counter = new Mp3DurationCounter(audio)) {
+				polly.writeToMp3(section.getContent(), counter);
+				audioDuration = counter.getDuration();
+			} catch (IOException e) {
+				// A section without its narration is broken: fail it rather than render it silent.
+				// The chunks that were synthesized are in the TtsCache for the next attempt.
+				CancellationToken.current().throwIfCancelled();
+				throw new RuntimeException("Unable to synthesize the narration of section " + section.getTitle(), e);
 			}
 		} else {
 			System.out.println("Proceding without audio.");
 		}
 		
-		int duration = getMp3Duration("audio.mp3");
-		
+		int duration = (int) Math.round(audioDuration);
 		System.out.println("Audio duration: " + duration);
 		
 		if (section.getImages().size() == 0)
 			// TODO Don't skip section without images
-			return;
+			return null;
 		
 		double imgDuration = (1.0 * (duration - videoDuration) / section.getImages().size()) + 0.25;
 		
@@ -176,145 +493,222 @@ public class VideoRenderer {
 		
 		AtomicInteger progress = new AtomicInteger(0);
 
-		if (section.hasOverlay()) cmd.append(" -i " + section.getOverlay() + "\\\n");
+		// Inputs are numbered from 0 in the filter graph: overlay, images, clip
+		List<List<String>> inputs = new ArrayList<>();
+		if (section.hasOverlay()) inputs.add(Arrays.asList("-i", section.getOverlay()));
 
-		int imagesFound = 0;
-		for (VideoImage image : section.getImages()) {
+		// Images that can't be retrieved are dropped, the graph refers to the inputs by position
+		int plannedImages = section.getImages().size();
+		List<String> imageFiles = new ArrayList<>();
+		for (Iterator<VideoImage> images = section.getImages().iterator(); images.hasNext();) {
+			VideoImage image = images.next();
+			CancellationToken.current().throwIfCancelled();
 			if (progress.incrementAndGet() % 1000 == 0) {
 				System.out.println("Progress: " + progress.get());
 			}
 			try {
-				byte[] asBytes = Request.Get(image.getLargeImageURL()).execute().returnContent().asBytes();
-				Files.write(Paths.get("tmp/" + progress.get() + ".jpg"), asBytes);
+				String imageFile = workspace.path(progress.get() + ".jpg");
+				ImgUtils.download(image.getLargeImageURL(), imageFile);
 				
 				if (image.getCaption() != null) {
 					System.out.println("Captioning image " + image.getLargeImageURL());
-					ImgUtils.createCaptionedImage("tmp/" + progress.get() + ".jpg", image.getCaption());
+					ImgUtils.createCaptionedImage(imageFile, image.getCaption());
 				}
-				
-				cmd.append(" -loop 1 -t " + imgDuration + " -i tmp/" + progress.get() + ".jpg \\\n");
-				imagesFound++;
+				imageFiles.add(imageFile);
 			} catch (IOException e) {
 				System.err.println("[ERROR] Error retrieving image: " + image.getLargeImageURL());
+				images.remove();
+				complete = false;
 			}
 		}
 		
-		if (imagesFound == 0 && pixabayVideo == null)
-			return;
-		else if (imagesFound != section.getImages().size())
-			imgDuration = (1.0 * (duration - videoDuration) / section.getImages().size()) + 0.25;
+		if (section.getImages().isEmpty() && pixabayVideo == null)
+			return null;
+		else if (!section.getImages().isEmpty() && section.getImages().size() != plannedImages)
+			imgDuration = (1.0 * (duration - (pixabayVideo != null ? videoDuration : 0)) / section.getImages().size()) + 0.25;
 		
-		cmd.append(" -i audio.mp3 \\\n");
+		for (int i = 0; i < imageFiles.size(); i++) {
+			if (hasKenBurns(section.getImages().get(i)))
+				// Read once, KenBurns generates the frames
+				inputs.add(Arrays.asList("-i", imageFiles.get(i)));
+			else
+				inputs.add(Arrays.asList("-loop", "1", "-framerate", "" + profile.getFps(), "-t", "" + imgDuration, "-i", imageFiles.get(i)));
+		}
 		
 		if (pixabayVideo != null)
-			cmd.append(" -i tmp/0.mp4 \\\n");
-		
+			inputs.add(Arrays.asList("-i", clipFile));
 		
 		int startIndex = section.hasOverlay() ? 1 : 0;
+		
+		// Labels are unique per section, so section graphs can be merged in a single pass render
+		String label = "s" + sectionIndex + "_";
 
-		cmd.append(" -filter_complex \\\n\"");
+		StringBuilder graph = new StringBuilder();
+		String scaleFilter = profile.getScaleFilter();
 		
 		for (int i = startIndex; i < section.getImages().size() + startIndex; i++) {
-			String zoompan = "";
-			if (section.getImages().get(i - startIndex).getCaption() == null) {
-				double startZoom = 1.1 + Math.random()*0.2;
-				double endZoom = 1.05 + Math.random()*0.1;
-				double speed = 0.0002 + Math.random() * 0.0005;
-				zoompan = ",scale=8000:-1,zoompan=z='if(lte(pzoom,1.0)," + startZoom +",max(" 
-				+ endZoom + ",pzoom-" + speed + "))':x='iw/2-(iw/pzoom/2)':y='ih/2-(ih/pzoom/2)':d=1,scale=hd1080";
+			String scaled = scaleFilter + ",setsar=1";
+			if (hasKenBurns(section.getImages().get(i - startIndex))) {
+				scaled = KenBurns.random().getFilter(profile, imgDuration);
 			}
 			
 			String overlayCmd = "";
 			if (section.getSectionOverlay() != null && i - startIndex == 0) {
-				String fullText = section.getSectionOverlay().getTitle().replace("'", "\''") + "\n\n\n" 
-					+ String.join("\n\n\n", section.getSectionOverlay().getBulletPoints().stream().map(x -> " • " + x).collect(Collectors.toList()));
-				
-				List<String> overlayTexts = new ArrayList<>();
-				
-				double charDuration = 3.0 / fullText.length(); 
-				
-				for (int oi = 1; oi <= fullText.length(); oi++) {
-					if (fullText.charAt(oi - 1) == '\\')
-						oi++;
-					overlayTexts.add(fullText.substring(0, oi));
-				}
-				
-				
-				overlayCmd = "[v" + startIndex + "]"; 
-				double startTime = 0.0;
-				for (int oti = 0; oti < overlayTexts.size(); oti++) {
-					String ot = overlayTexts.get(oti);
-					
-					double endTime = startTime + charDuration;
-					if (oti == overlayTexts.size() - 1)
-						endTime = 10.0;
-					
-					overlayCmd += "drawtext=text='" + ot +
-					"':x='if(lte(t*500,170),t*500,170)':y=270:\\\n" + 
-					" box=1:boxcolor=black@0.75:boxborderw=70:fontsize=40:fontcolor=#EEEEEE:enable='between(t," + startTime + "," + endTime + ")'";
-					
-					startTime += charDuration;
-					
-					if (oti != overlayTexts.size() - 1) {
-						overlayCmd += ",\\\n";
-					}
+				// Typing animation, rendered once as a subtitle track
+				Path assFile = workspace.resolve("overlay.ass");
+				try {
+					OverlayAnimation.write(section.getSectionOverlay(), profile, assFile);
+					overlayCmd = "[" + label + "v" + startIndex + "]ass=filename=" + escapeFilterPath(assFile)
+						+ "[" + label + "v" + startIndex + "];";
+				} catch (IOException e) {
+					System.err.println("[ERROR] Unable to write the overlay animation: " + e.getMessage());
+					complete = false;
 				}
-				
-				overlayCmd += "[v" + startIndex + "];";
 			}
 			
-			cmd.append(
-				"[" + i + ":v]\\\n"
-				+ SCALE_FILTER + ",setsar=1,\\\n"
-				+ "fade=t=in:st=0:d=1,fade=t=out:st=" + (imgDuration - 1) + ":d=1\\\n"
-				+ zoompan + "\\\n"
-				+ "[v" + i + "];\\\n "
-				+ overlayCmd + "\\\n"
+			graph.append(
+				"[" + i + ":v]"
+				+ scaled + ","
+				+ "fade=t=in:st=0:d=1,fade=t=out:st=" + (imgDuration - 1) + ":d=1"
+				+ "[" + label + "v" + i + "];"
+				+ overlayCmd
 			);
 			
 			if (section.hasOverlay() && i == startIndex) {
-				cmd.append("[0:v]scale=320:-1 [ovrl],[v1][ovrl]overlay=x='if(gte(main_w-(t)*500,main_w-w-120),main_w-(t)*500,main_w-w-120)':y=25:enable='between(t,0,10)'[v1];\\\n");
+				graph.append("[0:v]scale=" + profile.scale(320) + ":-1 [" + label + "ovrl],[" + label + "v1][" + label + "ovrl]overlay=x='if(gte(main_w-(t)*" + profile.scale(500) + ",main_w-w-" + profile.scale(120) + "),main_w-(t)*" + profile.scale(500) + ",main_w-w-" + profile.scale(120) + ")':y=" + profile.scale(25) + ":enable='between(t,0,10)'[" + label + "v1];");
 			}
 		}
 		
 		if (pixabayVideo != null) {
-			cmd.append("[" + (section.getImages().size() + startIndex + 1) +
-				":v]" + SCALE_FILTER + ",setsar=1,fade=t=in:st=0:d=1,fade=t=out:st=17:d=1[vvv];"
+			graph.append("[" + (section.getImages().size() + startIndex) +
+				":v]" + scaleFilter + ",setsar=1,fade=t=in:st=0:d=1,fade=t=out:st=17:d=1[" + label + "vvv];"
 			);
 		}
 		
 		List<String> videoStreams = new ArrayList<>();
 		for (int i = startIndex; i < section.getImages().size() + startIndex; i++) {
-			videoStreams.add("[v" + i + "]");
+			videoStreams.add("[" + label + "v" + i + "]");
 		}
 		
 		if (pixabayVideo != null)
-			videoStreams.add("[vvv]");
+			videoStreams.add("[" + label + "vvv]");
 		
 		String firstSectionStream = videoStreams.get(0);
 		List<String> otherSections = videoStreams.subList(1, videoStreams.size());
 		Collections.shuffle(otherSections);
 		
-		cmd.append(firstSectionStream + String.join("", otherSections) + "\\\nconcat=n=" + (videoStreams.size()));
-		cmd.append(":v=1:a=0,format=yuv420p[v];\\\n");
+		graph.append(firstSectionStream + String.join("", otherSections) + "concat=n=" + (videoStreams.size()));
+		graph.append(":v=1:a=0,format=yuv420p[" + label + "v];");
 		
-		cmd.append("[v]drawtext=text='\\ " + section.getTitle().replace("'", "\''") + "\\\n " 
-				+ "':x=(0):y=(text_h+50):fontfile=/usr/share/fonts/truetype/dejavu/DejaVuSansCondensed-Bold.ttf\\\n"
-				+ ":box=1: boxcolor=#A4031F@0.95:boxborderw=15\\\n"
-				+ ":fontsize=45:fontcolor=white[v]\\\n"
-				+ "\"\\\n -map \"[v]\" -map " 
-				+ (section.getImages().size() + (section.hasOverlay() ? 1 : 0)) 
-				+ ":a output/video.final." + sectionIndex + ".mp4");
-
-		PrintWriter out = new PrintWriter("gen_video.sh");
-		out.println(cmd);
-		out.close();
+		String output = "[" + label + "out]";
+		graph.append("[" + label + "v]drawtext=text='\\ " + section.getTitle().replace("'", "\''") + " " 
+				+ "':x=(0):y=(text_h+" + profile.scale(50) + "):fontfile=/usr/share/fonts/truetype/dejavu/DejaVuSansCondensed-Bold.ttf"
+				+ ":box=1: boxcolor=#A4031F@0.95:boxborderw=" + profile.scale(15)
+				+ ":fontsize=" + profile.scale(45) + ":fontcolor=white" + output);
 
-		System.out.println("CREATING VIDEO FILE output/video.final." + sectionIndex + ".mp4");
-		try {
-			ProcessRunner.run("sh", "gen_video.sh");
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
+		// Without -shortest the section lasts as long as its longest stream
+		double pictures = imgDuration * section.getImages().size() + (pixabayVideo != null ? videoDuration : 0);
+		return new SectionScript(inputs, graph.toString(), output, withAudio ? audio.toByteArray() : null, audioDuration,
+			Math.max(audioDuration, pictures), fingerprint, complete);
+	}
+	
+	/**
+	 * Hash of everything that ends up in the segment of a section: narration and voice,
+	 * images with their captions, clip, overlays, title, render profile and renderer version.
+	 * Computed before anything is synthesized or downloaded.
+	 */
+	private String fingerprint(WikiSection section) throws IOException {
+		List<String> parts = new ArrayList<>();
+		parts.add("version " + SEGMENT_VERSION);
+		parts.add("profile " + profile.name());
+		parts.add("voice " + withAudio + " " + polly.getEngine() + " " + polly.getVoiceId() + " " + polly.getLanguage());
+		parts.add("title " + section.getTitle());
+		parts.add("text " + TtsCache.normalize(section.getContent()));
+		
+		// Likes decide which images are dropped when there are too many
+		for (VideoImage image : section.getImages()) {
+			parts.add("image " + image.getId() + " " + image.getLargeImageURL() + " " + image.getLikes() + " " + image.getCaption());
+		}
+		if (!section.getVideos().isEmpty()) {
+			PixabayVideo clip = section.getVideos().get(0);
+			parts.add("clip " + clip.getId() + " " + clip.getDownloadURL() + " " + clip.getDuration());
+		}
+		if (section.hasOverlay()) {
+			parts.add("overlay " + Hashing.sha256Hash(Files.readAllBytes(Paths.get(section.getOverlay()))));
+		}
+		if (section.getSectionOverlay() != null) {
+			parts.add("facts " + section.getSectionOverlay().getTitle() + "\u0000" 
+				+ String.join("\u0000", section.getSectionOverlay().getBulletPoints()));
+		}
+		
+		return Hashing.sha256Hash(String.join("\n", parts));
+	}
+	
+	/**
+	 * Images with a caption stay still, so the text is easy to read
+	 */
+	private boolean hasKenBurns(VideoImage image) {
+		return profile.isKenBurns() && image.getCaption() == null;
+	}
+	
+	private ExternalProcess.Builder buildCommand(List<List<String>> inputs, String filterGraph, List<String> maps, Path outputFile) {
+		// Progress goes to stdout as key=value lines, the periodic stats line on stderr is not needed
+		ExternalProcess.Builder command = new ExternalProcess.Builder("ffmpeg", "-y", "-progress", "pipe:1", "-nostats");
+		for (List<String> input : inputs) {
+			command.args(input);
+		}
+		command.args("-filter_complex", filterGraph);
+		for (String map : maps) {
+			command.args("-map", map);
+		}
+		return command.args(profile.getEncoderArgs()).args(outputFile.toString());
+	}
+	
+	/**
+	 * @param progress parses the -progress output of ffmpeg, can be null
+	 */
+	private void run(ExternalProcess.Builder command, FfmpegProgress progress) throws IOException, InterruptedException {
+		ProcessResult result = command.timeout(encodeTimeout).outputHandler(progress).build().run();
+		System.out.println(String.format("ffmpeg took %.1fs (at least %.1fs CPU)", result.getWallTime().toMillis() / 1000.0, 
+			result.getCpuTime().toMillis() / 1000.0)
+			+ (progress != null ? String.format(", %.2fx realtime, %.0f fps", progress.getSpeed(), progress.getFps()) : ""));
+	}
+	
+	/**
+	 * Sums the progress of the ffmpeg processes of one encode,
+	 * each one weighted by the expected length of what it encodes.
+	 */
+	private static class EncodeTracker {
+		private final double[] expected;
+		
+		private final double[] done;
+		
+		private final double total;
+		
+		private final EncodeProgressListener listener;
+		
+		private final long start = System.nanoTime();
+		
+		EncodeTracker(double[] expected, EncodeProgressListener listener) {
+			this.expected = expected;
+			this.done = new double[expected.length];
+			this.total = Arrays.stream(expected).sum();
+			this.listener = listener;
+		}
+		
+		FfmpegProgress part(int index) {
+			return new FfmpegProgress(progress -> update(index, progress));
+		}
+		
+		private synchronized void update(int index, FfmpegProgress progress) {
+			done[index] = progress.isEnded() ? expected[index] : Math.min(progress.getOutTime(), expected[index]);
+			if (listener == null || total <= 0)
+				return;
+			
+			double encoded = Arrays.stream(done).sum();
+			double speed = encoded / ((System.nanoTime() - start) / 1e9);
+			Duration remaining = speed > 0 ? Duration.ofMillis(Math.round((total - encoded) / speed * 1000)) : null;
+			listener.onEncodeProgress(encoded / total, speed, remaining);
 		}
 	}
 }
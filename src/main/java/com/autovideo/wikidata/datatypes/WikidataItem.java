@@ -1,10 +1,22 @@
 package com.autovideo.wikidata.datatypes;
 
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
 
 import com.autovideo.utils.Language;
 import com.autovideo.utils.LocalizedText;
@@ -12,20 +24,59 @@ import com.autovideo.utils.Utils;
 import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
 
+/**
+ * A Wikidata item, stored compactly so that caches can hold many of them:
+ * texts are in arrays indexed by language, property IDs are ints (571 for P571)
+ * and item values are kept as the numbers of their IDs (5 for Q5).
+ * The getters return maps built from that representation, they are not backed by the item.
+ * The claims can also be kept unparsed until they are read, see setRawProperties().
+ */
 public class WikidataItem {
+	/**
+	 * Parses the raw JSON of the statements of a property, see setRawProperties()
+	 */
+	public interface ClaimsParser {
+		List<WikidataPropertyValue> parse(byte[] statements) throws IOException;
+	}
+	
+	private static final Logger logger = Logger.getLogger(WikidataItem.class.getName());
+	
 	private static final Gson gson = new Gson();
 	
-	private Map<Language, LocalizedText> labels = new HashMap<>();
+	private static final Language[] LANGUAGES = Language.values();
+	
+	private static final String[] NO_TEXTS = new String[0];
+	
+	private static final int[] NO_PROPERTIES = new int[0];
+	
+	/**
+	 * Texts by Language ordinal, null if there is none in the language
+	 */
+	private String[] labels = NO_TEXTS;
+	
+	private String[] descriptions = NO_TEXTS;
 	
-	private Map<Language, LocalizedText> descriptions = new HashMap<>();
+	private String[][] aliases = new String[0][];
 	
-	private Map<Language, Set<LocalizedText>> aliases = new HashMap<>();
+	private String[] sitelinks = NO_TEXTS;
 	
-	private Map<Language, String> sitelinks = new HashMap<>();
+	/**
+	 * Numbers of the property IDs, sorted
+	 */
+	private int[] propertyIds = NO_PROPERTIES;
 	
-	private Map<String, List<WikidataPropertyValue>> properties = new HashMap<>();
+	/**
+	 * Values of propertyIds[i]: an int[] of item numbers when they are all items,
+	 * a WikidataPropertyValue[] otherwise, or the raw JSON (byte[]) of the statements
+	 * until the property is first read, see setRawProperties()
+	 */
+	private AtomicReferenceArray<Object> propertyValues = new AtomicReferenceArray<>(0);
+	
+	/**
+	 * Turns the raw statements of a property into values, null unless the properties are raw
+	 */
+	private ClaimsParser claimsParser = null;
 	
-	@SerializedName("_id")
 	private String id;
 
 	private Integer downloaded;
@@ -36,19 +87,33 @@ public class WikidataItem {
 
 	
 	public Map<Language, LocalizedText> getLabels() {
-		return labels == null ? new HashMap<>() : labels;
+		return toLocalizedTexts(labels);
 	}
 
 	public Map<Language, LocalizedText> getDescriptions() {
-		return descriptions == null ? new HashMap<>() : descriptions;
+		return toLocalizedTexts(descriptions);
 	}
 
 	public Map<Language, Set<LocalizedText>> getAliases() {
-		return aliases == null ? new HashMap<>() : aliases;
+		Map<Language, Set<LocalizedText>> result = new EnumMap<>(Language.class);
+		for (int i = 0; i < aliases.length; i++) {
+			if (aliases[i] == null) continue;
+			
+			Set<LocalizedText> texts = new HashSet<>();
+			for (String alias : aliases[i]) {
+				texts.add(new LocalizedText(alias, LANGUAGES[i]));
+			}
+			result.put(LANGUAGES[i], texts);
+		}
+		return result;
 	}
 
 	public Map<Language, String> getSitelinks() {
-		return sitelinks == null ? new HashMap<>() : sitelinks;
+		Map<Language, String> result = new EnumMap<>(Language.class);
+		for (int i = 0; i < sitelinks.length; i++) {
+			if (sitelinks[i] != null) result.put(LANGUAGES[i], sitelinks[i]);
+		}
+		return result;
 	}
 
 	/**
@@ -57,9 +122,9 @@ public class WikidataItem {
 	 * @return
 	 */
 	public String getImageUrl() {
-		List<WikidataPropertyValue> list = properties.get("P18");
+		List<WikidataPropertyValue> list = getProperty("P18");
 		if (list == null || list.isEmpty()) {
-			list = properties.get("P154");
+			list = getProperty("P154");
 		}
 		if (list == null || list.isEmpty()) return null;
 		
@@ -68,9 +133,9 @@ public class WikidataItem {
 	}
 	
 	public String getFullImageUrl() {
-		List<WikidataPropertyValue> list = properties.get("P18");
+		List<WikidataPropertyValue> list = getProperty("P18");
 		if (list == null || list.isEmpty()) {
-			list = properties.get("P154");
+			list = getProperty("P154");
 		}
 		if (list == null || list.isEmpty()) return null;
 		
@@ -95,19 +160,24 @@ public class WikidataItem {
 	}
 
 	public void setLabels(Map<Language, LocalizedText> labels) {
-		this.labels = labels;
+		this.labels = toTexts(labels);
 	}
 
 	public void setDescriptions(Map<Language, LocalizedText> descriptions) {
-		this.descriptions = descriptions;
+		this.descriptions = toTexts(descriptions);
 	}
 
 	public void setAliases(Map<Language, Set<LocalizedText>> aliases) {
-		this.aliases = aliases;
+		String[][] result = new String[LANGUAGES.length][];
+		aliases.forEach((language, texts) -> 
+			result[language.ordinal()] = texts.stream().map(LocalizedText::getText).toArray(String[]::new));
+		this.aliases = aliases.isEmpty() ? new String[0][] : result;
 	}
 
 	public void setSitelinks(Map<Language, String> sitelinks) {
-		this.sitelinks = sitelinks;
+		String[] result = new String[LANGUAGES.length];
+		sitelinks.forEach((language, title) -> result[language.ordinal()] = title);
+		this.sitelinks = sitelinks.isEmpty() ? NO_TEXTS : result;
 	}
 
 	public void setId(String id) {
@@ -128,20 +198,272 @@ public class WikidataItem {
 	
 	
 	
+	/**
+	 * @return a read only view of the properties, the values of a property are built when it's read.
+	 * A raw property whose statements turn out unparsable is not in the view (see getProperty()),
+	 * so size() has to parse the raw properties, like iterating does.
+	 */
 	public Map<String, List<WikidataPropertyValue>> getProperties() {
-		return properties;
+		return new AbstractMap<String, List<WikidataPropertyValue>>() {
+			@Override
+			public List<WikidataPropertyValue> get(Object key) {
+				return key instanceof String ? getProperty((String) key) : null;
+			}
+			
+			@Override
+			public boolean containsKey(Object key) {
+				return get(key) != null;
+			}
+			
+			@Override
+			public boolean isEmpty() {
+				return entrySet().isEmpty();
+			}
+			
+			@Override
+			public Set<Map.Entry<String, List<WikidataPropertyValue>>> entrySet() {
+				return new AbstractSet<Map.Entry<String, List<WikidataPropertyValue>>>() {
+					@Override
+					public Iterator<Map.Entry<String, List<WikidataPropertyValue>>> iterator() {
+						return new Iterator<Map.Entry<String, List<WikidataPropertyValue>>>() {
+							private int index = 0;
+							
+							private List<WikidataPropertyValue> nextValues = null;
+							
+							@Override
+							public boolean hasNext() {
+								// Raw properties whose statements fail to parse have no values, they are left out
+								while (nextValues == null && index < propertyIds.length) {
+									nextValues = getValues(index++);
+								}
+								return nextValues != null;
+							}
+							
+							@Override
+							public Map.Entry<String, List<WikidataPropertyValue>> next() {
+								if (!hasNext()) throw new NoSuchElementException();
+								Map.Entry<String, List<WikidataPropertyValue>> entry = 
+									new AbstractMap.SimpleImmutableEntry<>("P" + propertyIds[index - 1], nextValues);
+								nextValues = null;
+								return entry;
+							}
+						};
+					}
+					
+					@Override
+					public int size() {
+						// Parsed properties always have values, only the raw ones can drop out
+						if (claimsParser == null)
+							return propertyIds.length;
+						
+						int size = 0;
+						for (int i = 0; i < propertyIds.length; i++) {
+							if (getValues(i) != null)
+								size++;
+						}
+						return size;
+					}
+					
+					@Override
+					public boolean isEmpty() {
+						return !iterator().hasNext();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * @param property e.g. "P571"
+	 * @return the values of the property, null if the item has none. Raw statements that
+	 * can't be parsed are logged and count as no values.
+	 */
+	public List<WikidataPropertyValue> getProperty(String property) {
+		int number = toNumber(property, 'P');
+		int index = number < 0 ? -1 : Arrays.binarySearch(propertyIds, number);
+		return index < 0 ? null : getValues(index);
 	}
 
 	public void setProperties(Map<String, List<WikidataPropertyValue>> properties) {
-		this.properties = properties;
+		TreeMap<Integer, List<WikidataPropertyValue>> sorted = new TreeMap<>();
+		properties.forEach((property, list) -> {
+			int number = toNumber(property, 'P');
+			if (number < 0)
+				throw new IllegalArgumentException("Not a property ID: " + property);
+			// Properties without values are left out, so that they are not counted
+			if (list != null && !list.isEmpty())
+				sorted.put(number, list);
+		});
+		
+		int[] ids = new int[sorted.size()];
+		AtomicReferenceArray<Object> values = new AtomicReferenceArray<>(sorted.size());
+		int i = 0;
+		for (Map.Entry<Integer, List<WikidataPropertyValue>> entry : sorted.entrySet()) {
+			ids[i] = entry.getKey();
+			values.set(i, compact(entry.getValue()));
+			i++;
+		}
+		
+		this.propertyIds = ids;
+		this.propertyValues = values;
+		this.claimsParser = null;
+	}
+	
+	/**
+	 * Sets the properties without parsing them: each property keeps the raw JSON
+	 * of its statements, which the parser turns into values the first time the
+	 * property is read. Properties that are never read are never parsed.
+	 * @param statements property ID -> raw statements, only for properties that have at least one value
+	 */
+	public void setRawProperties(Map<String, byte[]> statements, ClaimsParser parser) {
+		TreeMap<Integer, byte[]> sorted = new TreeMap<>();
+		statements.forEach((property, raw) -> {
+			int number = toNumber(property, 'P');
+			if (number < 0)
+				throw new IllegalArgumentException("Not a property ID: " + property);
+			sorted.put(number, raw);
+		});
+		
+		int[] ids = new int[sorted.size()];
+		AtomicReferenceArray<Object> values = new AtomicReferenceArray<>(sorted.size());
+		int i = 0;
+		for (Map.Entry<Integer, byte[]> entry : sorted.entrySet()) {
+			ids[i] = entry.getKey();
+			values.set(i, entry.getValue());
+			i++;
+		}
+		
+		this.claimsParser = parser;
+		this.propertyIds = ids;
+		this.propertyValues = values;
+	}
+	
+	/**
+	 * @return the item numbers if all the values are items, otherwise the values as they are
+	 */
+	private static Object compact(List<WikidataPropertyValue> values) {
+		int[] items = new int[values.size()];
+		for (int i = 0; i < items.length; i++) {
+			WikidataPropertyValue value = values.get(i);
+			items[i] = value.getType() == WikidataPropertyType.ENTITY_ID ? toNumber(value.getValue(), 'Q') : -1;
+			if (items[i] < 0)
+				return values.toArray(new WikidataPropertyValue[0]);
+		}
+		return items;
+	}
+	
+	/**
+	 * @return the values of propertyIds[index], parsing them if they are still raw. Null if there are none.
+	 */
+	private List<WikidataPropertyValue> getValues(int index) {
+		Object values = propertyValues.get(index);
+		if (values instanceof byte[]) {
+			Object parsed;
+			try {
+				parsed = compact(claimsParser.parse((byte[]) values));
+			} catch (IOException e) {
+				// Kept as no values, so it's logged once and not parsed again
+				logger.warning("Unable to parse the statements of P" + propertyIds[index] + " of " + id + ": " + e.getMessage());
+				parsed = new WikidataPropertyValue[0];
+			}
+			// Threads reading the property at the same time may all parse it, only one result is kept
+			propertyValues.compareAndSet(index, values, parsed);
+			values = propertyValues.get(index);
+		}
+		
+		if (values instanceof WikidataPropertyValue[]) {
+			WikidataPropertyValue[] array = (WikidataPropertyValue[]) values;
+			return array.length == 0 ? null : Collections.unmodifiableList(Arrays.asList(array));
+		}
+		
+		int[] items = (int[]) values;
+		if (items.length == 0)
+			return null;
+		
+		List<WikidataPropertyValue> result = new ArrayList<>(items.length);
+		for (int item : items) {
+			result.add(new WikidataPropertyValue("Q" + item, WikidataPropertyType.ENTITY_ID));
+		}
+		return result;
+	}
+	
+	/**
+	 * @return 571 for ("P571", 'P'), -1 if the ID is not in that form
+	 */
+	private static int toNumber(String id, char prefix) {
+		if (id == null || id.length() < 2 || id.length() > 10 || id.charAt(0) != prefix)
+			return -1;
+		
+		int number = 0;
+		for (int i = 1; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+	
+	private static Map<Language, LocalizedText> toLocalizedTexts(String[] texts) {
+		Map<Language, LocalizedText> result = new EnumMap<>(Language.class);
+		for (int i = 0; i < texts.length; i++) {
+			if (texts[i] != null) result.put(LANGUAGES[i], new LocalizedText(texts[i], LANGUAGES[i]));
+		}
+		return result;
+	}
+	
+	private static String[] toTexts(Map<Language, LocalizedText> texts) {
+		if (texts.isEmpty())
+			return NO_TEXTS;
+		
+		String[] result = new String[LANGUAGES.length];
+		texts.forEach((language, text) -> result[language.ordinal()] = text.getText());
+		return result;
+	}
+
+	/**
+	 * The JSON keeps the layout of the maps, whatever the representation in memory
+	 */
+	private static class JsonForm {
+		private Map<Language, LocalizedText> labels;
+		private Map<Language, LocalizedText> descriptions;
+		private Map<Language, Set<LocalizedText>> aliases;
+		private Map<Language, String> sitelinks;
+		private Map<String, List<WikidataPropertyValue>> properties;
+		@SerializedName("_id")
+		private String id;
+		private Integer downloaded;
+		private String type;
+		private int namespace;
 	}
 
 	public String toJson() {
-		return gson.toJson(this);
+		JsonForm form = new JsonForm();
+		form.labels = getLabels();
+		form.descriptions = getDescriptions();
+		form.aliases = getAliases();
+		form.sitelinks = getSitelinks();
+		form.properties = new LinkedHashMap<>(getProperties());
+		form.id = id;
+		form.downloaded = downloaded;
+		form.type = type;
+		form.namespace = namespace;
+		return gson.toJson(form);
 	}
 	
 	public static WikidataItem fromJson(String json) {
-		return gson.fromJson(json, WikidataItem.class);
+		JsonForm form = gson.fromJson(json, JsonForm.class);
+		WikidataItem item = new WikidataItem();
+		if (form.labels != null) item.setLabels(form.labels);
+		if (form.descriptions != null) item.setDescriptions(form.descriptions);
+		if (form.aliases != null) item.setAliases(form.aliases);
+		if (form.sitelinks != null) item.setSitelinks(form.sitelinks);
+		if (form.properties != null) item.setProperties(form.properties);
+		item.id = form.id;
+		item.downloaded = form.downloaded;
+		item.type = form.type;
+		item.namespace = form.namespace;
+		return item;
 	}
 
 	public int getIntegerKey() {
@@ -149,15 +471,15 @@ public class WikidataItem {
 	}
 
 	public String getDescriptionOrDefault(Language language, String defaultValue) {
-		LocalizedText localizedText = descriptions.get(language);
-		if (localizedText == null) return defaultValue;
-		return localizedText.getText();
+		String description = language.ordinal() < descriptions.length ? descriptions[language.ordinal()] : null;
+		if (description == null) return defaultValue;
+		return description;
 	}
 	
 	public String getLabelOrDefault(Language language, String defaultValue) {
-		LocalizedText localizedText = labels.get(language);
-		if (localizedText == null) return defaultValue;
-		return localizedText.getText();
+		String label = language.ordinal() < labels.length ? labels[language.ordinal()] : null;
+		if (label == null) return defaultValue;
+		return label;
 	}
 	
 	public List<WikidataEdge> getOutgoingEdges(String targetNodeId) {
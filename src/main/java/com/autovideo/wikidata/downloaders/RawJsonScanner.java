@@ -0,0 +1,132 @@
+package com.autovideo.wikidata.downloaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Walks the structure of a JSON document in UTF-8 without decoding it, so that
+ * values can be kept as byte ranges and parsed later. Only what's needed to find
+ * the boundaries of values is checked, the document is expected to be valid.
+ */
+class RawJsonScanner {
+	private final byte[] json;
+
+	private int position;
+
+	RawJsonScanner(byte[] json, int start) {
+		this.json = json;
+		this.position = start;
+	}
+
+	/**
+	 * @return where the next value starts, once the name before it is read
+	 */
+	int getPosition() {
+		skipWhitespace();
+		return position;
+	}
+
+	void beginObject() throws IOException {
+		expect('{');
+	}
+
+	void endObject() throws IOException {
+		expect('}');
+	}
+
+	void beginArray() throws IOException {
+		expect('[');
+	}
+
+	void endArray() throws IOException {
+		expect(']');
+	}
+
+	/**
+	 * @return true if there is another member in the current object or array
+	 */
+	boolean hasNext() throws IOException {
+		skipWhitespace();
+		if (position < json.length && json[position] == ',') {
+			position++;
+			skipWhitespace();
+		}
+		if (position >= json.length)
+			throw new IOException("Unexpected end of JSON");
+		return json[position] != '}' && json[position] != ']';
+	}
+
+	/**
+	 * Reads the name of a member. Names with escape sequences are returned as they are written.
+	 */
+	String nextName() throws IOException {
+		skipWhitespace();
+		int start = position + 1;
+		skipString();
+		String name = new String(json, start, position - 1 - start, StandardCharsets.UTF_8);
+		expect(':');
+		return name;
+	}
+
+	void skipValue() throws IOException {
+		skipWhitespace();
+		if (position >= json.length)
+			throw new IOException("Unexpected end of JSON");
+
+		switch (json[position]) {
+			case '"':
+				skipString();
+				break;
+			case '{':
+			case '[':
+				int depth = 0;
+				do {
+					byte b = json[position];
+					if (b == '"') {
+						skipString();
+						continue;
+					}
+					if (b == '{' || b == '[')
+						depth++;
+					else if (b == '}' || b == ']')
+						depth--;
+					position++;
+				} while (depth > 0 && position < json.length);
+				if (depth > 0)
+					throw new IOException("Unexpected end of JSON");
+				break;
+			default:
+				// Number, true, false or null
+				while (position < json.length && json[position] != ',' && json[position] != '}'
+						&& json[position] != ']' && !isWhitespace(json[position])) {
+					position++;
+				}
+				break;
+		}
+	}
+
+	private void skipString() throws IOException {
+		expect('"');
+		while (position < json.length && json[position] != '"') {
+			position += json[position] == '\\' ? 2 : 1;
+		}
+		expect('"');
+	}
+
+	private void expect(char c) throws IOException {
+		skipWhitespace();
+		if (position >= json.length || json[position] != c)
+			throw new IOException("Expected '" + c + "' at " + position);
+		position++;
+	}
+
+	private void skipWhitespace() {
+		while (position < json.length && isWhitespace(json[position])) {
+			position++;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
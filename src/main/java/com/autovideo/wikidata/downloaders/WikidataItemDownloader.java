@@ -1,227 +1,807 @@
 package com.autovideo.wikidata.downloaders;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.util.EntityUtils;
 
+import com.autovideo.utils.CancellationToken;
+import com.autovideo.utils.ConcurrentTasks;
 import com.autovideo.utils.Language;
 import com.autovideo.utils.LocalizedText;
 import com.autovideo.wikidata.datatypes.WikidataItem;
 import com.autovideo.wikidata.datatypes.WikidataPropertyType;
 import com.autovideo.wikidata.datatypes.WikidataPropertyValue;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 public class WikidataItemDownloader {
 	private static final String API_URL = "https://www.wikidata.org/w/api.php?action=wbgetentities&format=json&ids=";
 	
-	private static final Gson gson = new Gson();
+	private static final Logger logger = Logger.getLogger(WikidataItemDownloader.class.getName());
 	
-	public WikidataItem parseEntity(JsonObject entity) {
+	/**
+	 * Most IDs the API accepts in one request
+	 */
+	private static final int MAX_IDS_PER_REQUEST = 50;
+	
+	private static final int MAX_ATTEMPTS = 3;
+	
+	private static final long RETRY_DELAY_MS = 1000;
+	
+	/**
+	 * The properties and languages kept when parsing an entity, the rest is skipped
+	 */
+	public static class Projection {
+		/**
+		 * Every property, in every supported language
+		 */
+		public static final Projection ALL = new Projection(null, null);
+		
+		private final Set<String> properties;
+		
+		private final Set<Language> languages;
+		
+		/**
+		 * @param properties IDs of the properties to keep, null for all of them
+		 * @param languages languages of labels, descriptions, aliases and sitelinks to keep, null for all of them
+		 */
+		public Projection(Set<String> properties, Set<Language> languages) {
+			this.properties = properties == null ? null : new HashSet<>(properties);
+			this.languages = languages == null ? null : EnumSet.copyOf(languages);
+		}
+		
+		public boolean wantsProperty(String property) {
+			return properties == null || properties.contains(property);
+		}
+		
+		public boolean wantsLanguage(Language language) {
+			return languages == null || languages.contains(language);
+		}
+		
+		public boolean isAllLanguages() {
+			return languages == null;
+		}
+		
+		private String getLanguageCodes() {
+			return languages.stream().map(Language::getCode).collect(Collectors.joining("|"));
+		}
+	}
+	
+	private final int concurrency;
+	
+	private final Projection projection;
+	
+	private final boolean lazyClaims;
+	
+	public WikidataItemDownloader() {
+		this(4);
+	}
+	
+	/**
+	 * @param concurrency how many batches of MAX_IDS_PER_REQUEST items are requested at the same time
+	 */
+	public WikidataItemDownloader(int concurrency) {
+		this(concurrency, Projection.ALL);
+	}
+	
+	/**
+	 * @param concurrency how many batches of MAX_IDS_PER_REQUEST items are requested at the same time
+	 * @param projection what to keep of the entities
+	 */
+	public WikidataItemDownloader(int concurrency, Projection projection) {
+		this(concurrency, projection, false);
+	}
+	
+	/**
+	 * @param concurrency how many batches of MAX_IDS_PER_REQUEST items are requested at the same time
+	 * @param projection what to keep of the entities
+	 * @param lazyClaims if true, the claims of an item are only parsed when they are read, see WikidataItem.setRawProperties().
+	 * Worth it when only a few of the properties the projection keeps are read. The unparsed statements take more memory.
+	 */
+	public WikidataItemDownloader(int concurrency, Projection projection, boolean lazyClaims) {
+		this.concurrency = Math.max(1, concurrency);
+		this.projection = projection;
+		this.lazyClaims = lazyClaims;
+	}
+	
+	/**
+	 * Reads one entity of a wbgetentities response, keeping only what the projection asks for.
+	 * Everything else is skipped token by token, without being turned into objects.
+	 * @return null for missing entities
+	 */
+	public WikidataItem parseEntity(JsonReader reader) throws IOException {
 		WikidataItem result = new WikidataItem();
+		String id = null;
+		boolean missing = false;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			switch (name) {
+				case "id":
+					id = reader.nextString();
+					break;
+				case "missing":
+					missing = true;
+					reader.skipValue();
+					break;
+				default:
+					readField(name, reader, result);
+					break;
+			}
+		}
+		reader.endObject();
 		
+		return complete(result, id, missing);
+	}
+	
+	/**
+	 * Same as parseEntity(JsonReader) for the entity starting at start in json, keeping the claims
+	 * unparsed: the statements of each property are copied as they are, and parsed the first time
+	 * the property is read (see WikidataItem.setRawProperties()). Finding where they end doesn't
+	 * require decoding them, so properties that are never read cost little more than a copy.
+	 */
+	private WikidataItem parseEntityLazily(byte[] json, int start) throws IOException {
+		WikidataItem result = new WikidataItem();
 		String id = null;
-		try {
-			id = entity.get("id").getAsString();
-		} catch (NullPointerException e) {
-			return null;
+		boolean missing = false;
+		
+		RawJsonScanner scanner = new RawJsonScanner(json, start);
+		scanner.beginObject();
+		while (scanner.hasNext()) {
+			String name = scanner.nextName();
+			if (name.equals("claims")) {
+				result.setRawProperties(readRawClaims(json, scanner), WikidataItemDownloader::parseStatements);
+				continue;
+			}
+			
+			int valueStart = scanner.getPosition();
+			scanner.skipValue();
+			if (name.equals("missing")) {
+				missing = true;
+				continue;
+			}
+			
+			// The other fields are small enough, they are parsed right away
+			try (JsonReader reader = new JsonReader(new InputStreamReader(
+					new ByteArrayInputStream(json, valueStart, scanner.getPosition() - valueStart), StandardCharsets.UTF_8))) {
+				if (name.equals("id"))
+					id = reader.nextString();
+				else
+					readField(name, reader, result);
+			}
 		}
+		scanner.endObject();
 		
-		int downloaded = (int)(System.currentTimeMillis() / 1000.0);
+		return complete(result, id, missing);
+	}
+	
+	/**
+	 * Reads a field of an entity, other than its ID
+	 */
+	private void readField(String name, JsonReader reader, WikidataItem result) throws IOException {
+		switch (name) {
+			case "labels":
+				result.setLabels(readLocalizedTexts(reader));
+				break;
+			case "descriptions":
+				result.setDescriptions(readLocalizedTexts(reader));
+				break;
+			case "aliases":
+				result.setAliases(readAliases(reader));
+				break;
+			case "sitelinks":
+				result.setSitelinks(readSitelinks(reader));
+				break;
+			case "claims":
+				result.setProperties(readClaims(reader));
+				break;
+			default:
+				reader.skipValue();
+				break;
+		}
+	}
+	
+	/**
+	 * @return the item, null for missing entities
+	 */
+	private static WikidataItem complete(WikidataItem result, String id, boolean missing) {
+		if (id == null || missing)
+			return null;
 		
 		result.setId(id);
 		result.setNamespace(0);
-		result.setDownloaded(downloaded);
+		result.setDownloaded((int)(System.currentTimeMillis() / 1000.0));
+		return result;
+	}
+	
+	/**
+	 * Same as parseEntity(JsonReader), for an entity that was already parsed into a tree
+	 */
+	public WikidataItem parseEntity(JsonObject entity) {
+		try {
+			return parseEntity(new JsonReader(new StringReader(entity.toString())));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * @return the language of a Wikidata language code, if the projection wants it
+	 */
+	private Language wantedLanguage(String code) {
+		Language language = Language.fromCode(code);
+		return language != null && projection.wantsLanguage(language) ? language : null;
+	}
+	
+	/**
+	 * Reads labels or descriptions: {"en": {"language": "en", "value": "..."}, ...}
+	 */
+	private Map<Language, LocalizedText> readLocalizedTexts(JsonReader reader) throws IOException {
+		Map<Language, LocalizedText> result = new HashMap<>();
 		
-		result.setLabels(parseMapWithLocalizedString(entity.get("labels").getAsJsonObject()));
-		result.setDescriptions(parseMapWithLocalizedString(entity.get("descriptions").getAsJsonObject()));
-		result.setAliases(parseMapWithLocalizedStrings(entity.get("aliases").getAsJsonObject()));
-		result.setSitelinks(parseSitelinks(entity.get("sitelinks").getAsJsonObject()));
-		result.setProperties(parseProperties(entity.get("claims").getAsJsonObject()));
+		reader.beginObject();
+		while (reader.hasNext()) {
+			Language language = wantedLanguage(reader.nextName());
+			if (language == null) {
+				reader.skipValue();
+				continue;
+			}
+			
+			String value = readValue(reader);
+			if (value != null)
+				result.put(language, new LocalizedText(value, language));
+		}
+		reader.endObject();
 		
 		return result;
 	}
 	
-	private Map<Language, Set<LocalizedText>> parseMapWithLocalizedStrings(JsonObject map) {
+	/**
+	 * Reads aliases: {"en": [{"language": "en", "value": "..."}, ...], ...}
+	 */
+	private Map<Language, Set<LocalizedText>> readAliases(JsonReader reader) throws IOException {
 		Map<Language, Set<LocalizedText>> result = new HashMap<>();
 		
-		map.entrySet().forEach(e -> {
-			JsonArray values = e.getValue().getAsJsonArray();
-			for (int i = 0; i < values.size(); i++) {
-				JsonObject value = values.get(i).getAsJsonObject();
-				
-				try {
-					Language language = Language.valueOf(value.get("language").getAsString().toUpperCase());
-					result.putIfAbsent(language, new HashSet<>());
-					
-					
-					result.get(language).add(
-						new LocalizedText(
-							value.get("value").getAsString(), 
-							language
-						)
-					);
-				} catch (IllegalArgumentException ex) {
-					// Skip unsupported languages
-				}
+		reader.beginObject();
+		while (reader.hasNext()) {
+			Language language = wantedLanguage(reader.nextName());
+			if (language == null) {
+				reader.skipValue();
+				continue;
 			}
 			
-		});
-
+			reader.beginArray();
+			while (reader.hasNext()) {
+				String value = readValue(reader);
+				if (value != null)
+					result.computeIfAbsent(language, l -> new HashSet<>()).add(new LocalizedText(value, language));
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		
 		return result;
 	}
 	
-	private Map<String, List<WikidataPropertyValue>> parseProperties(JsonObject map) {
+	/**
+	 * @return the "value" field of a {"language": ..., "value": ...} object
+	 */
+	private static String readValue(JsonReader reader) throws IOException {
+		String value = null;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("value") && reader.peek() == JsonToken.STRING)
+				value = reader.nextString();
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		
+		return value;
+	}
+	
+	/**
+	 * Reads sitelinks: {"enwiki": {"site": "enwiki", "title": "...", "badges": []}, ...}
+	 */
+	private Map<Language, String> readSitelinks(JsonReader reader) throws IOException {
+		Map<Language, String> result = new HashMap<>();
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String site = reader.nextName();
+			Language language = site.endsWith("wiki") ? wantedLanguage(site.substring(0, site.length() - 4)) : null;
+			if (language == null) {
+				reader.skipValue();
+				continue;
+			}
+			
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("title"))
+					result.put(language, reader.nextString());
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+		
+		return result;
+	}
+	
+	/**
+	 * Reads claims: {"P31": [statement, ...], ...}, with the value of the main snak of each statement
+	 */
+	private Map<String, List<WikidataPropertyValue>> readClaims(JsonReader reader) throws IOException {
 		Map<String, List<WikidataPropertyValue>> results = new HashMap<>();
 		
-		map.entrySet().forEach(e -> {
-			JsonArray values = e.getValue().getAsJsonArray();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String property = reader.nextName();
+			if (!projection.wantsProperty(property)) {
+				reader.skipValue();
+				continue;
+			}
 			
-			values.forEach(value -> {
-				try {
-					JsonObject mainsnak = 
-						value.getAsJsonObject().get("mainsnak").getAsJsonObject();
-					
-					if (mainsnak.get("snaktype").getAsString().equals("value")) {
-						JsonObject datavalue = mainsnak.get("datavalue").getAsJsonObject();
-						String datatype = datavalue.get("type").getAsString();
-						WikidataPropertyType type = WikidataPropertyType.fromString(datatype);
-						
-						if (type == null) return;
-
-						JsonElement jsonElement = datavalue.get("value");
-						
-						
-						
-						if (jsonElement.isJsonObject()) {
-							if (type == WikidataPropertyType.ENTITY_ID) {
-								String entityType = jsonElement.getAsJsonObject().get("entity-type").getAsString();
-								if (entityType.equals("item")) {
-									String id = jsonElement.getAsJsonObject().get("id").getAsString();
-									results.putIfAbsent(e.getKey(), new ArrayList<>());
-									results.get(e.getKey()).add(new WikidataPropertyValue(id, type));
-								}
-							} else if (type == WikidataPropertyType.STRING) {
-								String stringValue = jsonElement.getAsJsonObject().get("value").getAsString();
-								results.putIfAbsent(e.getKey(), new ArrayList<>());
-								results.get(e.getKey()).add(new WikidataPropertyValue(stringValue, type));
-							} else if (type == WikidataPropertyType.TIME) {
-								String stringValue = jsonElement.getAsJsonObject().get("time").getAsString();
-								
-								boolean negativeYear = false;
-								if (stringValue.startsWith("-")) {
-									negativeYear = true;
-									stringValue = stringValue.substring(1);
-								}
-								
-								stringValue = stringValue.split("-")[0].replace("+", ""); // Extract only year from date
-								results.putIfAbsent(e.getKey(), new ArrayList<>());
-
-								if (negativeYear)
-									stringValue = stringValue.replaceAll("^0+", "") + " BC";
-								
-								results.get(e.getKey()).add(new WikidataPropertyValue(stringValue, type));
-							} else if (type == WikidataPropertyType.COORD) {
-								JsonObject coordValues = jsonElement.getAsJsonObject();
-								double lat = coordValues.get("latitude").getAsDouble();
-								double lon = coordValues.get("longitude").getAsDouble();
-								results.putIfAbsent(e.getKey(), new ArrayList<>());
-								results.get(e.getKey()).add(new WikidataPropertyValue(lat + "," + lon, type));
-							} else if (type == WikidataPropertyType.QUANTITY) {
-								String amount = jsonElement.getAsJsonObject().get("amount").getAsString();
-								results.putIfAbsent(e.getKey(), new ArrayList<>());
-								results.get(e.getKey()).add(new WikidataPropertyValue(amount, type));
-							}
-						} else {
-							String realValue = jsonElement.getAsString();
-							results.putIfAbsent(e.getKey(), new ArrayList<>());
-							results.get(e.getKey()).add(new WikidataPropertyValue(realValue, type));
-						}
-						
-					}
-				} catch (JsonParseException | IllegalStateException | NullPointerException ex) {
-					// Skip
-//					System.err.println("EXCEEPEP");
-					System.err.println(e.getKey());
-					ex.printStackTrace();
-				}
-			});
-		});
+			reader.beginArray();
+			while (reader.hasNext()) {
+				WikidataPropertyValue value = readStatement(reader);
+				if (value != null)
+					results.computeIfAbsent(property, p -> new ArrayList<>()).add(value);
+			}
+			reader.endArray();
+		}
+		reader.endObject();
 		
 		return results;
 	}
 	
-	private Map<Language, String> parseSitelinks(JsonObject map) {
-		Map<Language, String> result = new HashMap<>();
+	/**
+	 * Same as readClaims(), keeping the statements of each property as they are written, to be parsed by parseStatements().
+	 * Like readClaims(), properties without any value are left out.
+	 */
+	private Map<String, byte[]> readRawClaims(byte[] json, RawJsonScanner scanner) throws IOException {
+		Map<String, byte[]> results = new HashMap<>();
 		
-		map.entrySet().forEach(e -> {
-			String key = e.getKey();
-			if (!key.endsWith("wiki")) return;
-			
-			try {
-				Language language = Language.valueOf(e.getKey().toUpperCase().replace("WIKI", ""));
+		scanner.beginObject();
+		while (scanner.hasNext()) {
+			String property = scanner.nextName();
+			int start = scanner.getPosition();
+			scanner.skipValue();
+			if (projection.wantsProperty(property) && hasValue(json, start)) {
+				results.put(property, Arrays.copyOfRange(json, start, scanner.getPosition()));
+			}
+		}
+		scanner.endObject();
+		
+		return results;
+	}
+	
+	/**
+	 * @return true if parseStatements() will find a value in the statements starting at start.
+	 * Only their main snaks are parsed, up to the first one with a value: usually just one.
+	 */
+	private static boolean hasValue(byte[] json, int start) throws IOException {
+		RawJsonScanner scanner = new RawJsonScanner(json, start);
+		scanner.beginArray();
+		while (scanner.hasNext()) {
+			scanner.beginObject();
+			while (scanner.hasNext()) {
+				boolean mainSnak = scanner.nextName().equals("mainsnak");
+				int snakStart = scanner.getPosition();
+				scanner.skipValue();
+				if (!mainSnak)
+					continue;
 				
-				result.put(
-					language, 
-					e.getValue().getAsJsonObject().get("title").getAsString()
-				);
-			} catch (IllegalArgumentException ex) {
-				// Skip unsupported languages
-			}
-		});
-		return result;
+				// A main snak is small, decoding it to a String is cheaper than setting up a stream decoder
+				try (JsonReader reader = new JsonReader(new StringReader(
+						new String(json, snakStart, scanner.getPosition() - snakStart, StandardCharsets.UTF_8)))) {
+					if (readSnak(reader) != null)
+						return true;
+				}
+			}
+			scanner.endObject();
+		}
+		scanner.endArray();
+		return false;
 	}
 	
-	private Map<Language, LocalizedText> parseMapWithLocalizedString(JsonObject map) {
-		Map<Language, LocalizedText> result = new HashMap<>();
+	/**
+	 * Parses the raw statements kept by readRawClaims()
+	 */
+	private static List<WikidataPropertyValue> parseStatements(byte[] statements) throws IOException {
+		List<WikidataPropertyValue> values = new ArrayList<>();
 		
-		map.entrySet().forEach(e -> {
-			try {
-				Language language = Language.valueOf(e.getKey().toUpperCase());
-				result.put(
-					language, 
-					new LocalizedText(e.getValue().getAsJsonObject().get("value").getAsString(), language)
-				);
-			} catch (IllegalArgumentException ex) {
-				// Skip unsupported languages
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(statements), StandardCharsets.UTF_8))) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				WikidataPropertyValue value = readStatement(reader);
+				if (value != null)
+					values.add(value);
 			}
-		});
+			reader.endArray();
+		} catch (IllegalStateException | NumberFormatException e) {
+			throw new IOException(e);
+		}
 		
-		return result;
+		return values;
+	}
+	
+	/**
+	 * @return the value of the main snak, null if it has none (no value, unknown value, unsupported type)
+	 */
+	private static WikidataPropertyValue readStatement(JsonReader reader) throws IOException {
+		WikidataPropertyValue value = null;
+		
+		// Qualifiers and references are skipped
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("mainsnak"))
+				value = readSnak(reader);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		
+		return value;
+	}
+	
+	private static WikidataPropertyValue readSnak(JsonReader reader) throws IOException {
+		String snakType = null;
+		DataValue dataValue = null;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "snaktype":
+					snakType = reader.nextString();
+					break;
+				case "datavalue":
+					dataValue = readDataValue(reader);
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+		
+		if (!"value".equals(snakType) || dataValue == null)
+			return null;
+		return dataValue.toPropertyValue();
+	}
+	
+	/**
+	 * The fields of a datavalue that are kept, read before knowing its type
+	 * since "type" can come after "value"
+	 */
+	private static class DataValue {
+		private String type;
+		private String string;
+		private String entityType, id;
+		private String time;
+		private String latitude, longitude;
+		private String amount;
+		
+		private WikidataPropertyValue toPropertyValue() {
+			WikidataPropertyType propertyType = type == null ? null : WikidataPropertyType.fromString(type);
+			if (propertyType == null)
+				return null;
+			
+			if (string != null)
+				return new WikidataPropertyValue(string, propertyType);
+			
+			switch (propertyType) {
+				case ENTITY_ID:
+					return "item".equals(entityType) && id != null ? new WikidataPropertyValue(id, propertyType) : null;
+				case TIME:
+					return time != null ? new WikidataPropertyValue(toYear(time), propertyType) : null;
+				case COORD:
+					return latitude != null && longitude != null 
+						? new WikidataPropertyValue(Double.parseDouble(latitude) + "," + Double.parseDouble(longitude), propertyType) : null;
+				case QUANTITY:
+					return amount != null ? new WikidataPropertyValue(amount, propertyType) : null;
+				default:
+					return null;
+			}
+		}
+		
+		/**
+		 * Extracts only the year from a Wikidata time, e.g. -0753-04-21T00:00:00Z is 753 BC
+		 */
+		private static String toYear(String time) {
+			boolean negativeYear = false;
+			if (time.startsWith("-")) {
+				negativeYear = true;
+				time = time.substring(1);
+			}
+			
+			time = time.split("-")[0].replace("+", "");
+			if (negativeYear)
+				time = time.replaceAll("^0+", "") + " BC";
+			return time;
+		}
+	}
+	
+	private static DataValue readDataValue(JsonReader reader) throws IOException {
+		DataValue dataValue = new DataValue();
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "type":
+					dataValue.type = reader.nextString();
+					break;
+				case "value":
+					if (reader.peek() == JsonToken.STRING) {
+						dataValue.string = reader.nextString();
+						break;
+					}
+					if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+						reader.skipValue();
+						break;
+					}
+					
+					reader.beginObject();
+					while (reader.hasNext()) {
+						String name = reader.nextName();
+						if (reader.peek() != JsonToken.STRING && reader.peek() != JsonToken.NUMBER) {
+							reader.skipValue();
+							continue;
+						}
+						switch (name) {
+							case "entity-type": dataValue.entityType = reader.nextString(); break;
+							case "id": dataValue.id = reader.nextString(); break;
+							case "time": dataValue.time = reader.nextString(); break;
+							case "latitude": dataValue.latitude = reader.nextString(); break;
+							case "longitude": dataValue.longitude = reader.nextString(); break;
+							case "amount": dataValue.amount = reader.nextString(); break;
+							default: reader.skipValue(); break;
+						}
+					}
+					reader.endObject();
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+		
+		return dataValue;
 	}
 	
+	/**
+	 * Downloads the items, see download(Collection, Consumer)
+	 */
 	public List<WikidataItem> download(Set<String> ids) throws IOException {
-		List<WikidataItem> results = new ArrayList<>();
+		List<WikidataItem> results = Collections.synchronizedList(new ArrayList<>());
+		download(ids, results::add);
+		return new ArrayList<>(results);
+	}
+	
+	/**
+	 * Downloads the items in batches of MAX_IDS_PER_REQUEST, up to concurrency batches at a time,
+	 * passing each item to the callback as soon as its batch arrives. The callback is called
+	 * from several threads. A failed batch is retried on its own, up to MAX_ATTEMPTS times.
+	 * @throws IOException once all the batches are done, if some of them failed for good.
+	 * The items of the other batches have been passed to the callback.
+	 */
+	public void download(Collection<String> ids, Consumer<WikidataItem> callback) throws IOException {
+		List<String> allIds = new ArrayList<>(new LinkedHashSet<>(ids));
+		if (allIds.isEmpty())
+			return;
 		
 		Logger.getLogger("org.apache.http.client.protocol.ResponseProcessCookies").setLevel(Level.SEVERE);
-		String json = Request.Get(API_URL + URLEncoder.encode(String.join("|", ids), "UTF-8")).execute().returnContent().asString();
 		
-		JsonObject obj = gson.fromJson(json, JsonObject.class);
+		// A batch that fails for good doesn't stop the others, anything else does
+		List<Callable<IOException>> batches = new ArrayList<>();
+		for (int i = 0; i < allIds.size(); i += MAX_IDS_PER_REQUEST) {
+			List<String> batch = allIds.subList(i, Math.min(allIds.size(), i + MAX_IDS_PER_REQUEST));
+			batches.add(() -> {
+				try {
+					downloadBatch(batch).forEach(callback);
+					return null;
+				} catch (IOException e) {
+					return e;
+				}
+			});
+		}
 		
+		List<IOException> failures;
 		try {
-			JsonObject entities = 
-				obj.get("entities").getAsJsonObject();
-			
-			entities.entrySet().forEach(e -> {
-				WikidataItem item = parseEntity(e.getValue().getAsJsonObject());
-				if (item != null) results.add(item);
-			});
-		} catch (JsonParseException | IllegalStateException | NullPointerException e) {
-			e.printStackTrace();
+			failures = ConcurrentTasks.run(batches, concurrency);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while downloading Wikidata items");
+			interrupted.initCause(e);
+			throw interrupted;
 		}
-
+		
+		failures.removeIf(Objects::isNull);
+		if (!failures.isEmpty()) {
+			throw new IOException(failures.size() + " of " + batches.size() + " Wikidata batches failed", failures.get(0));
+		}
+	}
+	
+	/**
+	 * Reads a wbgetentities response: {"entities": {"Q1": {...}, ...}, "success": 1}
+	 * Missing entities (deleted or never existing IDs) are left out, and so are entities
+	 * with an unexpected structure: they are logged and skipped, the rest of the batch is kept.
+	 * @see #readEntitiesLazily(byte[])
+	 */
+	private List<WikidataItem> readEntities(JsonReader reader) throws IOException {
+		List<WikidataItem> results = new ArrayList<>();
+		boolean found = false;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("entities")) {
+				found = true;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String id = reader.nextName();
+					String entityPath = reader.getPath();
+					try {
+						WikidataItem item = parseEntity(reader);
+						if (item != null) results.add(item);
+					} catch (IllegalStateException | NumberFormatException e) {
+						// How JsonReader reports an unexpected structure
+						logger.warning("Skipping Wikidata entity " + id + " that cannot be parsed: " + e.getMessage());
+						skipRestOfEntity(reader, entityPath);
+					}
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		if (!found)
+			throw new IOException("Unexpected response from Wikidata, no entities");
 		return results;
 	}
+	
+	/**
+	 * Moves the reader past the entity whose parsing failed, wherever it stopped inside it,
+	 * so the next entity can be read.
+	 * @param entityPath the path of the reader right after the name of the entity
+	 */
+	private static void skipRestOfEntity(JsonReader reader, String entityPath) throws IOException {
+		// Inside the entity the path is longer, once it's closed the path is the same again
+		while (!reader.getPath().equals(entityPath)) {
+			if (reader.hasNext())
+				reader.skipValue();
+			else if (reader.peek() == JsonToken.END_OBJECT)
+				reader.endObject();
+			else
+				reader.endArray();
+		}
+		
+		// It failed before the entity was opened
+		JsonToken next = reader.peek();
+		if (next != JsonToken.NAME && next != JsonToken.END_OBJECT)
+			reader.skipValue();
+	}
+	
+	/**
+	 * Same as readEntities(), with the claims left unparsed, see parseEntityLazily().
+	 * The bounds of an entity are found before it's parsed, so one that cannot be parsed is just skipped.
+	 */
+	private List<WikidataItem> readEntitiesLazily(byte[] json) throws IOException {
+		List<WikidataItem> results = new ArrayList<>();
+		boolean found = false;
+		
+		RawJsonScanner scanner = new RawJsonScanner(json, 0);
+		scanner.beginObject();
+		while (scanner.hasNext()) {
+			if (scanner.nextName().equals("entities")) {
+				found = true;
+				scanner.beginObject();
+				while (scanner.hasNext()) {
+					String id = scanner.nextName();
+					int start = scanner.getPosition();
+					scanner.skipValue();
+					try {
+						WikidataItem item = parseEntityLazily(json, start);
+						if (item != null) results.add(item);
+					} catch (IOException | IllegalStateException | NumberFormatException e) {
+						logger.warning("Skipping Wikidata entity " + id + " that cannot be parsed: " + e.getMessage());
+					}
+				}
+				scanner.endObject();
+			} else {
+				scanner.skipValue();
+			}
+		}
+		scanner.endObject();
+		
+		if (!found)
+			throw new IOException("Unexpected response from Wikidata, no entities");
+		return results;
+	}
+	
+	private String getUrl(List<String> ids) throws IOException {
+		String url = API_URL + URLEncoder.encode(String.join("|", ids), "UTF-8");
+		// Also filters the languages on the server side, except for sitelinks
+		if (!projection.isAllLanguages()) {
+			url += "&languages=" + URLEncoder.encode(projection.getLanguageCodes(), "UTF-8");
+		}
+		return url;
+	}
+	
+	/**
+	 * Downloads at most MAX_IDS_PER_REQUEST items, retrying with a growing delay.
+	 * Entities that cannot be parsed are skipped, a response that cannot be parsed fails the attempt.
+	 */
+	private List<WikidataItem> downloadBatch(List<String> ids) throws IOException, InterruptedException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				Request request = Request.Get(getUrl(ids));
+				try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
+					return request.execute().handleResponse(response -> {
+						StatusLine status = response.getStatusLine();
+						if (status.getStatusCode() >= 300)
+							throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+						
+						try {
+							// Lazy claims are kept as byte ranges of the response, so it's read as a whole
+							if (lazyClaims)
+								return readEntitiesLazily(EntityUtils.toByteArray(response.getEntity()));
+							
+							try (JsonReader reader = new JsonReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8))) {
+								return readEntities(reader);
+							}
+						} catch (IllegalStateException | NumberFormatException e) {
+							// How JsonReader reports an unexpected structure
+							throw new IOException("Unexpected response from Wikidata", e);
+						}
+					});
+				}
+			} catch (IOException e) {
+				CancellationToken.current().throwIfCancelled();
+				if (attempt >= MAX_ATTEMPTS)
+					throw new IOException("Unable to download Wikidata items " + ids.get(0) + "... (" + ids.size() + ")", e);
+				
+				logger.warning("Wikidata batch failed (attempt " + attempt + " of " + MAX_ATTEMPTS + "), retrying: " + e.getMessage());
+				Thread.sleep(RETRY_DELAY_MS * attempt);
+			}
+		}
+	}
 }
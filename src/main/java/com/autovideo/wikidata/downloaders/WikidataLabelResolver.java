@@ -0,0 +1,189 @@
+package com.autovideo.wikidata.downloaders;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.client.fluent.Request;
+
+import com.autovideo.utils.CancellationToken;
+import com.autovideo.utils.Language;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Resolves Wikidata IDs to their labels, e.g. the founders of a company for the key facts.
+ *
+ * Only the labels in the requested language are downloaded (wbgetentities with props=labels),
+ * for all the IDs at once, in batches of MAX_IDS_PER_REQUEST. Labels are kept in a bounded
+ * LRU cache shared by all jobs, so entities that come up again cost nothing.
+ */
+public class WikidataLabelResolver {
+	private static final String API_URL = "https://www.wikidata.org/w/api.php?action=wbgetentities&format=json&props=labels";
+
+	/**
+	 * Most IDs the API accepts in one request
+	 */
+	private static final int MAX_IDS_PER_REQUEST = 50;
+
+	private static final int DEFAULT_MAX_CACHED_LABELS = 10000;
+
+	/**
+	 * Cached for entities without a label in the language, so they are not requested again
+	 */
+	private static final String NO_LABEL = "";
+
+	private static final Gson gson = new Gson();
+
+	private static WikidataLabelResolver instance = null;
+
+	/**
+	 * "language:id" -> label, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<String, String> labels;
+
+	public synchronized static WikidataLabelResolver getInstance() {
+		if (instance == null) {
+			instance = new WikidataLabelResolver(DEFAULT_MAX_CACHED_LABELS);
+		}
+		return instance;
+	}
+
+	public WikidataLabelResolver(int maxCachedLabels) {
+		labels = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxCachedLabels;
+			}
+		};
+	}
+
+	/**
+	 * @return the label of each ID, in the order of ids. IDs without a label in the language are left out.
+	 * @throws IOException if the labels that were not cached could not be downloaded
+	 */
+	public Map<String, String> resolve(Collection<String> ids, Language language) throws IOException {
+		Set<String> missing = new LinkedHashSet<>();
+		synchronized (this) {
+			for (String id : ids) {
+				if (!labels.containsKey(key(id, language)))
+					missing.add(id);
+			}
+		}
+
+		List<String> batch = new ArrayList<>();
+		for (String id : missing) {
+			batch.add(id);
+			if (batch.size() == MAX_IDS_PER_REQUEST) {
+				download(batch, language);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			download(batch, language);
+		}
+
+		Map<String, String> result = new LinkedHashMap<>();
+		synchronized (this) {
+			for (String id : ids) {
+				String label = labels.get(key(id, language));
+				if (label != null && !label.equals(NO_LABEL))
+					result.put(id, label);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the label of the ID, or null if it has none in the language
+	 */
+	public String resolve(String id, Language language) throws IOException {
+		return resolve(List.of(id), language).get(id);
+	}
+
+	private void download(List<String> ids, Language language) throws IOException {
+		String code = language.getCode();
+		Request request = Request.Get(API_URL + "&languages=" + code + "&ids=" + URLEncoder.encode(String.join("|", ids), "UTF-8"));
+		String json;
+		try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
+			json = request.execute().returnContent().asString();
+		}
+
+		Map<String, String> downloaded = readLabels(json, ids, code);
+
+		synchronized (this) {
+			downloaded.forEach((id, label) -> labels.put(key(id, language), label));
+		}
+	}
+
+	/**
+	 * Reads a wbgetentities response: {"entities": {"Q1": {"labels": {"en": {"value": ...}}}}}
+	 * @return the label of each entity, NO_LABEL for the ones without a label in the language
+	 * @throws IOException with the message of the API if it answered with an error
+	 */
+	private static Map<String, String> readLabels(String json, List<String> ids, String code) throws IOException {
+		JsonObject response;
+		try {
+			response = gson.fromJson(json, JsonObject.class);
+		} catch (JsonParseException e) {
+			throw new IOException("Unexpected response from Wikidata for " + ids, e);
+		}
+		if (response == null)
+			throw new IOException("Empty response from Wikidata for " + ids);
+		if (response.has("error"))
+			throw new IOException("Wikidata error for " + ids + ": " + errorMessage(response.get("error")));
+		if (!isObject(response, "entities"))
+			throw new IOException("Unexpected response from Wikidata for " + ids + ", no entities");
+
+		Map<String, String> downloaded = new LinkedHashMap<>();
+		for (Map.Entry<String, JsonElement> entity : response.getAsJsonObject("entities").entrySet()) {
+			if (!entity.getValue().isJsonObject())
+				throw new IOException("Unexpected response from Wikidata for " + entity.getKey());
+			JsonObject item = entity.getValue().getAsJsonObject();
+			if (!isObject(item, "labels") || !isObject(item.getAsJsonObject("labels"), code)) {
+				downloaded.put(entity.getKey(), NO_LABEL);
+				continue;
+			}
+
+			JsonElement value = item.getAsJsonObject("labels").getAsJsonObject(code).get("value");
+			if (value == null || !value.isJsonPrimitive())
+				throw new IOException("Unexpected response from Wikidata for " + entity.getKey() + ", no label value");
+			downloaded.put(entity.getKey(), value.getAsString());
+		}
+		return downloaded;
+	}
+
+	private static boolean isObject(JsonObject object, String member) {
+		return object.has(member) && object.get(member).isJsonObject();
+	}
+
+	/**
+	 * @return the message of an API error object: {"error": {"code": "...", "info": "..."}}
+	 */
+	private static String errorMessage(JsonElement error) {
+		if (!error.isJsonObject())
+			return error.toString();
+		JsonObject object = error.getAsJsonObject();
+		return text(object.get("code")) + ": " + text(object.get("info"));
+	}
+
+	private static String text(JsonElement element) {
+		if (element == null)
+			return "unknown";
+		return element.isJsonPrimitive() ? element.getAsString() : element.toString();
+	}
+
+	private static String key(String id, Language language) {
+		return language.name() + ":" + id;
+	}
+}
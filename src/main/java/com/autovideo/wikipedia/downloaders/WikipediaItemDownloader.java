@@ -1,15 +1,21 @@
 package com.autovideo.wikipedia.downloaders;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -17,19 +23,18 @@ import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.fluent.Request;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
+import com.autovideo.utils.CancellationToken;
+import com.autovideo.utils.ConcurrentTasks;
 import com.autovideo.utils.Language;
 import com.autovideo.wikipedia.datatypes.WikipediaItem;
 import com.autovideo.wikipedia.datatypes.WikipediaItemID;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * Download a set of Wikipedia pages through calls to the APIs
@@ -40,7 +45,51 @@ public class WikipediaItemDownloader {
 	
 	private static final String WIKI_API = "http://$LANG$.wikipedia.org/w/api.php";
 	
-	private static final Gson gson = new Gson();
+	/**
+	 * Most titles or page IDs the query API accepts in one request
+	 */
+	private static final int MAX_TITLES_PER_REQUEST = 50;
+	
+	/**
+	 * The parts of a page that can be requested, each one with the
+	 * query API prop that returns it and the parameters that go with it
+	 */
+	public enum Prop {
+		/** Plain text content */
+		EXTRACT("extracts", "explaintext", ""),
+		WIKIDATA_ID("pageprops", "ppprop", "wikibase_item"),
+		/** Also needed to recognize redirect pages */
+		WIKITEXT("revisions", "rvprop", "content"),
+		/** The redirects to the page */
+		REDIRECTS("redirects", "rdlimit", "500"),
+		CATEGORIES("categories"),
+		LINKS("links", "pllimit", "500");
+		
+		private final String apiProp;
+		
+		private final String[] parameters;
+		
+		private Prop(String apiProp, String... parameters) {
+			this.apiProp = apiProp;
+			this.parameters = parameters;
+		}
+	}
+	
+	private interface ResponseReader<T> {
+		T read(JsonReader reader) throws IOException;
+	}
+	
+	/**
+	 * What is left of a query response once its pages are read
+	 */
+	private static class QueryResponse {
+		private boolean error = false;
+		
+		/**
+		 * Parameters of the next request, empty if the result is complete
+		 */
+		private final Map<String, String> continuation = new HashMap<>();
+	}
 	
 	private Language language;
 	
@@ -54,12 +103,24 @@ public class WikipediaItemDownloader {
 	
 	private boolean getHtml = false;
 	
+	private Set<Prop> props;
+	
+	private int concurrency;
+	
+	private int htmlConcurrency;
+	
 	public static class Builder {
 		private Language language;
 		private boolean acceptIds = true;
 		
 		private boolean getHtml = false;
 		
+		private Set<Prop> props = EnumSet.allOf(Prop.class);
+		
+		private int concurrency = 4;
+		
+		private int htmlConcurrency = 8;
+		
 		public Builder(Language language) {
 			this.language = language;
 		}
@@ -74,6 +135,31 @@ public class WikipediaItemDownloader {
 			return this;
 		}
 		
+		/**
+		 * Which parts of the pages to download, all of them by default.
+		 * Each one costs payload and continuation requests, so ask only for what is used.
+		 */
+		public Builder setProps(Prop... props) {
+			this.props = props.length == 0 ? EnumSet.noneOf(Prop.class) : EnumSet.copyOf(Arrays.asList(props));
+			return this;
+		}
+		
+		/**
+		 * How many batches of MAX_TITLES_PER_REQUEST pages are requested at the same time
+		 */
+		public Builder setConcurrency(int concurrency) {
+			this.concurrency = Math.max(1, concurrency);
+			return this;
+		}
+		
+		/**
+		 * How many pages have their HTML requested at the same time, see setGetHtml()
+		 */
+		public Builder setHtmlConcurrency(int htmlConcurrency) {
+			this.htmlConcurrency = Math.max(1, htmlConcurrency);
+			return this;
+		}
+		
 		public WikipediaItemDownloader build() {
 			return new WikipediaItemDownloader(this);
 		}
@@ -84,10 +170,17 @@ public class WikipediaItemDownloader {
 		this.language = builder.language;
 		this.acceptIds = builder.acceptIds;
 		this.getHtml = builder.getHtml;
+		this.props = EnumSet.copyOf(builder.props);
+		this.concurrency = builder.concurrency;
+		this.htmlConcurrency = builder.htmlConcurrency;
 		
+		// The default pool only allows 2 connections per host
+		int connections = Math.max(concurrency, htmlConcurrency);
 		httpClient = HttpClients.custom()
 	        .setDefaultRequestConfig(RequestConfig.custom()
 	            .setCookieSpec(CookieSpecs.STANDARD).build())
+	        .setMaxConnPerRoute(connections)
+	        .setMaxConnTotal(concurrency + htmlConcurrency)
 	        .build();
 	}
 	
@@ -101,13 +194,50 @@ public class WikipediaItemDownloader {
 	}
 	
 	/**
-	 * Downloads the batch of Wikipedia pages where the pageIdsParams
-	 * is a pipe separated string (|) with  numeric IDs or title, 
+	 * Downloads the Wikipedia pages with the given numeric IDs or titles.
+	 * The list is split in batches of MAX_TITLES_PER_REQUEST, requested concurrently,
+	 * then the HTML of the pages is requested concurrently if getHtml is set.
 	 * @param pageIdsParams
-	 * @return
+	 * @return the valid pages, batch after batch in the order of pageIdsParams,
+	 * in the order of the API response within a batch
 	 */
 	public List<WikipediaItem> request(List<String> pageIdsParams) {
-		Map<Integer, WikipediaItem> partialResults = new HashMap<>();
+		List<Callable<Map<Integer, WikipediaItem>>> batches = new ArrayList<>();
+		for (int i = 0; i < pageIdsParams.size(); i += MAX_TITLES_PER_REQUEST) {
+			List<String> batch = pageIdsParams.subList(i, Math.min(pageIdsParams.size(), i + MAX_TITLES_PER_REQUEST));
+			batches.add(() -> requestBatch(batch));
+		}
+		
+		// A page asked for twice (by title and by redirect) can come back in two batches
+		Map<Integer, WikipediaItem> results = new LinkedHashMap<>();
+		for (Map<Integer, WikipediaItem> batchResults : ConcurrentTasks.runUnchecked(batches, concurrency)) {
+			batchResults.forEach(results::putIfAbsent);
+		}
+		
+		List<WikipediaItem> collect = results.values().stream()
+				.filter(WikipediaItem::isValid)
+				.collect(Collectors.toList());
+		
+		if (this.getHtml) {
+			List<Callable<Void>> htmlRequests = new ArrayList<>();
+			for (WikipediaItem c : collect) {
+				htmlRequests.add(() -> {
+					requestHtml(c);
+					return null;
+				});
+			}
+			ConcurrentTasks.runUnchecked(htmlRequests, htmlConcurrency);
+		}
+		
+		return collect;
+	}
+	
+	/**
+	 * Downloads a batch of at most MAX_TITLES_PER_REQUEST pages, following the continuations
+	 * @return the pages by ID, partial if a request failed
+	 */
+	private Map<Integer, WikipediaItem> requestBatch(List<String> pageIdsParams) {
+		Map<Integer, WikipediaItem> partialResults = new LinkedHashMap<>();
 		
 		URIBuilder uriBuilder;
 		
@@ -120,215 +250,319 @@ public class WikipediaItemDownloader {
 				uriBuilder.setParameter("titles", String.join("|", pageIdsParams));
 
 			uriBuilder.setParameter("action", "query");
-			uriBuilder.setParameter("prop", "extracts");
 			uriBuilder.setParameter("format", "json");
-			uriBuilder.setParameter("explaintext", "");
 			uriBuilder.setParameter("continue", "");
 			
-			uriBuilder.setParameter("action", "query");
-			uriBuilder.setParameter("prop", "redirects|langlinks|categories|links|images|revisions|extracts|pageprops");
-			uriBuilder.setParameter("rvprop", "content");
-			uriBuilder.setParameter("ppprop", "wikibase_item");
-			uriBuilder.setParameter("lllimit", "500");
-			uriBuilder.setParameter("pllimit", "500");
-			uriBuilder.setParameter("imlimit", "500");
-			uriBuilder.setParameter("rdlimit", "500");
+			// The API only continues the props that were requested
+			if (!props.isEmpty()) {
+				uriBuilder.setParameter("prop", props.stream().map(p -> p.apiProp).collect(Collectors.joining("|")));
+			}
+			for (Prop prop : props) {
+				for (int i = 0; i < prop.parameters.length; i += 2) {
+					uriBuilder.setParameter(prop.parameters[i], prop.parameters[i + 1]);
+				}
+			}
 			
 			String requestUrl = uriBuilder.build().toString();
 			System.out.println(requestUrl);
 			try {
-				HttpEntity entity = httpClient.execute(new HttpGet(requestUrl)).getEntity();
-				String jsonResult = EntityUtils.toString(entity);
-				
-				JsonObject pageObj = gson.fromJson(jsonResult, JsonObject.class);
-				boolean hasContinuation = false;
+				QueryResponse response;
 				do {
-					if (pageObj.has("error")) {
-						logger.warning("Error requesting Wikipedia page batch. Returning partial results.");
-						return new ArrayList<>(partialResults.values());
-					}
+					response = get(requestUrl, reader -> readQueryResponse(reader, partialResults));
 					
-					// Parse results of query
-					if (pageObj.has("query")) {
-						JsonObject allPages;
-						try {
-							allPages = pageObj.get("query").getAsJsonObject().get("pages").getAsJsonObject();
-						} catch (IllegalStateException e) {
-							allPages = new JsonObject();
-						}
-						
-						// Iterate all pages in the result set
-						for (Map.Entry<String, JsonElement> entry : allPages.entrySet()) {
-							JsonObject page = entry.getValue().getAsJsonObject();
-							
-							int id;
-							int type;
-							String title;
-							String wikidataId = null;
-
-							if (page.has("missing")) {
-								continue;
-							} else {
-								id = page.get("pageid").getAsInt();
-								title = page.get("title").getAsString();
-								type = page.get("ns").getAsInt();
-								
-								if (page.has("pageprops") && wikidataId == null) {
-									JsonObject wikidataItem = page.get("pageprops").getAsJsonObject();
-									wikidataId = wikidataItem.get("wikibase_item").getAsString();
-								}
-							}
-							
-							// Populate redirects if any
-							Set<String> redirects = new HashSet<String>();
-							if (page.has("redirects")) {
-								JsonArray redirectList = page.get("redirects").getAsJsonArray();
-								
-								for (int i = 0; i < redirectList.size(); i++) {
-									JsonObject element = redirectList.get(i).getAsJsonObject();
-									
-									redirects.add(
-										element.get("title").getAsString()
-									);
-								}
-							}
-							
-							// Populate categories
-							List<WikipediaItemID> categories = new ArrayList<WikipediaItemID>();
-							if (page.has("categories")) {
-								JsonArray categoryList = page.get("categories").getAsJsonArray();
-								
-								for (int i = 0; i < categoryList.size(); i++) {
-									JsonObject element = categoryList.get(i).getAsJsonObject();
-									
-									categories.add(
-											new WikipediaItemID(
-												null,
-												element.get("title").getAsString(), 
-												element.get("ns").getAsInt(), 
-												language, 
-												null
-											)
-									);
-								}
-							}
-
-							// Populate links if any
-							List<WikipediaItemID> links = new ArrayList<WikipediaItemID>();
-							if (page.has("links")) {
-								JsonArray linkList = page.get("links").getAsJsonArray();
-								
-								for (int i = 0; i < linkList.size(); i++) {
-									JsonObject element = linkList.get(i).getAsJsonObject();
-									
-									links.add(
-										new WikipediaItemID(
-											null,
-											element.get("title").getAsString(), 
-											element.get("ns").getAsInt(), 
-											language, 
-											null
-										)
-									);
-								}
-							}
-
-							String wikitext = null;
-							if (page.has("revisions")) {
-								JsonArray revisionsList = page.get("revisions").getAsJsonArray();
-								
-								try {
-									JsonObject jsonElement = revisionsList.get(0).getAsJsonObject();
-									wikitext = jsonElement.get("*").getAsString();
-								} catch (Exception e) {
-									System.err.println("Unable to find revisions for page " + title);
-									continue;
-								}
-							}
-							
-							String pageContent = null;
-							if (page.has("extract")) pageContent = page.get("extract").getAsString();
-							
-							WikipediaItemID wikipediaPageID = new WikipediaItemID(id, title, type, language, wikidataId);
-							WikipediaItem currentPage;
-							
-							if (partialResults.containsKey(id)) {
-								currentPage = partialResults.get(id);
-								
-								if (wikidataId != null) {
-									currentPage.getId().setWikidataId(wikidataId);
-								}
-								
-								if (wikitext != null && currentPage.getWikitext() == null) {
-									currentPage.setWikitext(wikitext);
-								}
-								
-								if (currentPage.getContent() == null && pageContent != null) {
-									currentPage.setContent(pageContent);
-								}
-							} else {
-								currentPage = new WikipediaItem(wikipediaPageID);
-								currentPage.setContent(pageContent);
-								currentPage.setWikitext(wikitext);
-								partialResults.put(id, currentPage);
-							}
-							
-							currentPage.addCategories(categories);
-							currentPage.addLinks(links);
-							currentPage.addRedirects(redirects);
-						}
+					if (response.error) {
+						logger.warning("Error requesting Wikipedia page batch. Returning partial results.");
+						return partialResults;
 					}
 					
 					// Checks if we have to make more requests to get
 					// all the content, otherwise exit the loop
-					hasContinuation = pageObj.has("continue");
-					if (hasContinuation) {
-						JsonObject continueParams = pageObj.get("continue").getAsJsonObject();
-
-						for (Map.Entry<String, JsonElement> param : continueParams.entrySet()) {
-							uriBuilder.setParameter(param.getKey(), param.getValue().getAsString());
-						}
-
-						requestUrl = uriBuilder.build().toString();
-						
-						entity = httpClient.execute(new HttpGet(requestUrl)).getEntity();
-						jsonResult = EntityUtils.toString(entity);
-						
-						pageObj = gson.fromJson(jsonResult, JsonObject.class);
+					for (Map.Entry<String, String> param : response.continuation.entrySet()) {
+						uriBuilder.setParameter(param.getKey(), param.getValue());
 					}
-				} while (hasContinuation);
-			} catch (IOException e) {
-				return partialResults.values().stream().collect(Collectors.toList());
+					requestUrl = uriBuilder.build().toString();
+				} while (!response.continuation.isEmpty());
+			} catch (IOException | IllegalStateException e) {
+				// IllegalStateException is how JsonReader reports an unexpected structure
+				logger.warning("Unable to read Wikipedia page batch, returning partial results: " + e.getMessage());
+				return partialResults;
 			}
 
 		} catch (URISyntaxException e) {
 			throw new RuntimeException(e);
 		}
 
-		List<WikipediaItem> collect = partialResults.values().stream()
-				.filter(WikipediaItem::isValid)
-				.collect(Collectors.toList());
+		return partialResults;
+	}
+	
+	/**
+	 * Reads one response of the query API, adding the pages to partialResults
+	 * (or completing them, for a continuation) as they are read
+	 */
+	private QueryResponse readQueryResponse(JsonReader reader, Map<Integer, WikipediaItem> partialResults) throws IOException {
+		QueryResponse response = new QueryResponse();
 		
-		if (this.getHtml) {
-			collect.forEach(c -> {
-				System.out.println(c.getTitle());
-				try {
-					String json = Request.Get("https://" + language + ".wikipedia.org/w/api.php?action=parse&page=" + URLEncoder.encode(c.getTitle(), "UTF-8") + "&prop=text&formatversion=2&format=json")
-						.execute().returnContent().asString();
-					JsonObject fromJson = gson.fromJson(json, JsonObject.class);
-					fromJson = fromJson.get("parse").getAsJsonObject();
-					if (fromJson.has("text")) {
-						c.setHtmlContent(fromJson.get("text").getAsString());
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "error":
+					response.error = true;
+					reader.skipValue();
+					break;
+				case "continue":
+					reader.beginObject();
+					while (reader.hasNext()) {
+						response.continuation.put(reader.nextName(), reader.nextString());
+					}
+					reader.endObject();
+					break;
+				case "query":
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if (reader.nextName().equals("pages") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+							reader.beginObject();
+							while (reader.hasNext()) {
+								reader.nextName();
+								readPage(reader, partialResults);
+							}
+							reader.endObject();
+						} else {
+							reader.skipValue();
+						}
 					}
-				} catch (IOException e) {
-					e.printStackTrace();
+					reader.endObject();
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+		
+		return response;
+	}
+	
+	/**
+	 * Reads one entry of query.pages, fields the downloader doesn't use are skipped without being parsed
+	 */
+	private void readPage(JsonReader reader, Map<Integer, WikipediaItem> partialResults) throws IOException {
+		Integer id = null;
+		int type = 0;
+		String title = null;
+		String wikidataId = null;
+		boolean missing = false;
+		boolean hasRevisions = false;
+		String wikitext = null;
+		String pageContent = null;
+		Set<String> redirects = new HashSet<String>();
+		List<WikipediaItemID> categories = new ArrayList<WikipediaItemID>();
+		List<WikipediaItemID> links = new ArrayList<WikipediaItemID>();
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "pageid":
+					id = reader.nextInt();
+					break;
+				case "ns":
+					type = reader.nextInt();
+					break;
+				case "title":
+					title = reader.nextString();
+					break;
+				case "missing":
+				case "invalid":
+					missing = true;
+					reader.skipValue();
+					break;
+				case "pageprops":
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if (reader.nextName().equals("wikibase_item"))
+							wikidataId = reader.nextString();
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+					break;
+				case "redirects":
+					for (WikipediaItemID redirect : readTitles(reader)) {
+						redirects.add(redirect.getTitle());
+					}
+					break;
+				case "categories":
+					categories = readTitles(reader);
+					break;
+				case "links":
+					links = readTitles(reader);
+					break;
+				case "revisions":
+					hasRevisions = true;
+					wikitext = readFirstRevision(reader);
+					break;
+				case "extract":
+					pageContent = reader.nextString();
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+		
+		if (missing || id == null) {
+			return;
+		}
+		
+		if (hasRevisions && wikitext == null) {
+			System.err.println("Unable to find revisions for page " + title);
+			return;
+		}
+		
+		WikipediaItemID wikipediaPageID = new WikipediaItemID(id, title, type, language, wikidataId);
+		WikipediaItem currentPage;
+		
+		if (partialResults.containsKey(id)) {
+			currentPage = partialResults.get(id);
+			
+			if (wikidataId != null) {
+				currentPage.getId().setWikidataId(wikidataId);
+			}
+			
+			if (wikitext != null && currentPage.getWikitext() == null) {
+				currentPage.setWikitext(wikitext);
+			}
+			
+			if (currentPage.getContent() == null && pageContent != null) {
+				currentPage.setContent(pageContent);
+			}
+		} else {
+			currentPage = new WikipediaItem(wikipediaPageID);
+			currentPage.setContent(pageContent);
+			currentPage.setWikitext(wikitext);
+			partialResults.put(id, currentPage);
+		}
+		
+		currentPage.addCategories(categories);
+		currentPage.addLinks(links);
+		currentPage.addRedirects(redirects);
+	}
+	
+	/**
+	 * Reads an array of {ns, title} objects, as found in links, categories and redirects
+	 */
+	private List<WikipediaItemID> readTitles(JsonReader reader) throws IOException {
+		List<WikipediaItemID> titles = new ArrayList<>();
+		
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String title = null;
+			int ns = 0;
+			
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "title":
+						title = reader.nextString();
+						break;
+					case "ns":
+						ns = reader.nextInt();
+						break;
+					default:
+						reader.skipValue();
+						break;
 				}
-			});
+			}
+			reader.endObject();
+			
+			if (title != null) {
+				titles.add(new WikipediaItemID(null, title, ns, language, null));
+			}
 		}
+		reader.endArray();
 		
-		return collect;
+		return titles;
 	}
-
+	
+	/**
+	 * @return the content of the first revision, null if there is none
+	 */
+	private static String readFirstRevision(JsonReader reader) throws IOException {
+		String wikitext = null;
+		boolean first = true;
+		
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				continue;
+			}
+			first = false;
+			
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("*") && reader.peek() == JsonToken.STRING)
+					wikitext = reader.nextString();
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		}
+		reader.endArray();
+		
+		return wikitext;
+	}
+	
+	/**
+	 * Sets the HTML content of the page, leaving it null if the request fails
+	 */
+	private void requestHtml(WikipediaItem c) {
+		System.out.println(c.getTitle());
+		try {
+			String html = get("https://" + language + ".wikipedia.org/w/api.php?action=parse&page=" + URLEncoder.encode(c.getTitle(), "UTF-8") + "&prop=text&formatversion=2&format=json", reader -> {
+				String text = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("parse") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+						reader.beginObject();
+						while (reader.hasNext()) {
+							if (reader.nextName().equals("text"))
+								text = reader.nextString();
+							else
+								reader.skipValue();
+						}
+						reader.endObject();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				return text;
+			});
+			if (html != null) {
+				c.setHtmlContent(html);
+			}
+		} catch (IOException | IllegalStateException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * GET on the pooled client, aborted if the job is cancelled.
+	 * The response is parsed while it is received, it's never held in memory as a whole.
+	 */
+	private <T> T get(String requestUrl, ResponseReader<T> responseReader) throws IOException {
+		HttpGet request = new HttpGet(requestUrl);
+		try (CancellationToken.Scope scope = CancellationToken.current().onCancel(request::abort)) {
+			HttpEntity entity = httpClient.execute(request).getEntity();
+			try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+				return responseReader.read(reader);
+			} finally {
+				EntityUtils.consumeQuietly(entity);
+			}
+		}
+	}
+	
 	public String getApiUrl() {
 		return WIKI_API.replace("$LANG$", language.toString().toLowerCase());
 	}
@@ -340,4 +574,8 @@ public class WikipediaItemDownloader {
 	public boolean getAcceptIds() {
 		return acceptIds;
 	}
+	
+	public Set<Prop> getProps() {
+		return Collections.unmodifiableSet(props);
+	}
 }